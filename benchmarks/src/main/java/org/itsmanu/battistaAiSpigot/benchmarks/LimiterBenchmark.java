@@ -0,0 +1,97 @@
+package org.itsmanu.battistaAiSpigot.benchmarks;
+
+import org.itsmanu.battistaAiSpigot.dto.GcraLimiter;
+import org.itsmanu.battistaAiSpigot.dto.PlayerLimiterTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate limiter checks, made by the async chat threads for every question.
+ * The global limiter is shared by every player, so it's measured under contention as well.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LimiterBenchmark {
+
+    /**
+     * A limiter used by a single thread, like a player limiter.
+     */
+    @State(Scope.Thread)
+    public static class PlayerState {
+        final GcraLimiter limiter = new GcraLimiter();
+    }
+
+    /**
+     * A limiter shared by all the benchmark threads, like the global limiter.
+     */
+    @State(Scope.Benchmark)
+    public static class GlobalState {
+        final GcraLimiter limiter = new GcraLimiter();
+    }
+
+    /**
+     * A player limiter table holding 100k players, like a large network after a day.
+     */
+    @State(Scope.Thread)
+    public static class TableState {
+        static final int PLAYERS = 100_000;
+        final PlayerLimiterTable table = new PlayerLimiterTable();
+        int next = 0;
+
+        @Setup
+        public void setup() {
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < PLAYERS; i++) {
+                table.tryAcquire(i, i, now, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+            }
+        }
+    }
+
+    /**
+     * Accepted request, the limits are high enough to never be exceeded.
+     */
+    @Benchmark
+    public boolean accepted(PlayerState state) {
+        return state.limiter.tryAcquire(System.currentTimeMillis(), Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Rejected request, the default player limits are exceeded after the first few requests.
+     */
+    @Benchmark
+    public boolean rejected(PlayerState state) {
+        return state.limiter.tryAcquire(System.currentTimeMillis(), 3, 60, 120);
+    }
+
+    /**
+     * Accepted request on a limiter shared by 8 threads.
+     */
+    @Benchmark
+    @Threads(8)
+    public boolean contended(GlobalState state) {
+        return state.limiter.tryAcquire(System.currentTimeMillis(), Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Accepted request of a player in a table of 100k players.
+     */
+    @Benchmark
+    public boolean table(TableState state) {
+        int player = state.next++ % TableState.PLAYERS;
+        return state.table.tryAcquire(player, player, System.currentTimeMillis(), Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+}
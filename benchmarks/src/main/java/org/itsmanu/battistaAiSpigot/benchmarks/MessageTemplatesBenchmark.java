@@ -0,0 +1,62 @@
+package org.itsmanu.battistaAiSpigot.benchmarks;
+
+import net.kyori.adventure.text.Component;
+import org.itsmanu.battistaAiSpigot.utils.MessageTemplates;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering of answers into chat components, with the MineDown syntax the backend answers with.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageTemplatesBenchmark {
+
+    private static final String SENTENCE = "You can claim land with **/claim** in the [wiki](https://example.com/wiki), "
+            + "then use __/trust <player>__ to let your friends build. ";
+
+    @Param({"short", "long"})
+    public String answer;
+
+    private MessageTemplates templates;
+    private String text;
+
+    @Setup
+    public void setup() {
+        templates = new MessageTemplates("&7[&bAI Helper&7]&f ", Map.of(
+                "messages.processing", "&eProcessing your question..."
+        ));
+        text = answer.equals("short") ? SENTENCE : SENTENCE.repeat(20);
+    }
+
+    @Benchmark
+    public Component format() {
+        return templates.format(text);
+    }
+
+    @Benchmark
+    public Component formatContinuation() {
+        return templates.formatContinuation(text);
+    }
+
+    @Benchmark
+    public Component prebuiltMessage() {
+        return templates.get("messages.processing", "Processing question...");
+    }
+}
@@ -0,0 +1,79 @@
+package org.itsmanu.battistaAiSpigot.benchmarks;
+
+import okio.Buffer;
+import org.itsmanu.battistaAiSpigot.dto.Settings;
+import org.itsmanu.battistaAiSpigot.utils.PayloadUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request payloads sent to the backend and answers read from it.
+ * The answer bodies look like the ones of Battista AI Backend, with the sources listed before the response, so the
+ * reader has to skip them to reach the answer, or after it, so the reader can stop at the answer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PayloadBenchmark {
+
+    private static final int MAX_ANSWER_LENGTH = 65536;
+
+    @Param({"small", "large"})
+    public String size;
+
+    @Param({"sources_first", "response_first"})
+    public String order;
+
+    private Settings.SourceFilter sourceFilter;
+    private byte[] body;
+
+    @Setup
+    public void setup() {
+        sourceFilter = new Settings.SourceFilter("1v_DPY7mkRtx-_d7DH7EB86O9R2cKfWJc",
+                "{\"folder\": \"1v_DPY7mkRtx-_d7DH7EB86O9R2cKfWJc\"}");
+
+        int sentences = size.equals("small") ? 2 : 150;
+        int sources = size.equals("small") ? 1 : 20;
+        String response = "Use **/claim** to protect your land, then **/trust** your friends. ".repeat(sentences);
+        StringBuilder sourceList = new StringBuilder("\"sources\": [");
+        for (int i = 0; i < sources; i++) {
+            if (i > 0) {
+                sourceList.append(", ");
+            }
+            sourceList.append("{\"path\": \"guides/claims-").append(i).append(".md\", \"score\": 0.8")
+                    .append(", \"text\": \"").append("Claims protect your builds from griefing. ".repeat(10)).append("\"}");
+        }
+        sourceList.append("]");
+        String answer = "\"response\": \"" + response + "\"";
+        String json = order.equals("sources_first")
+                ? "{" + sourceList + ", " + answer + "}"
+                : "{" + answer + ", " + sourceList + "}";
+        body = json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String prepareJsonPayload() {
+        return PayloadUtil.prepareJsonPayload("how do I claim land on this server?", false, sourceFilter);
+    }
+
+    @Benchmark
+    public String readResponse() throws IOException {
+        return PayloadUtil.readResponse(new Buffer().write(body), MAX_ANSWER_LENGTH);
+    }
+}
@@ -0,0 +1,52 @@
+package org.itsmanu.battistaAiSpigot.benchmarks;
+
+import org.itsmanu.battistaAiSpigot.utils.QuestionMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Question detection, run on every chat message that passes the cheap filter stages.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QuestionMatcherBenchmark {
+
+    @Param({"chat", "question", "tagged", "long_chat"})
+    public String message;
+
+    private QuestionMatcher matcher;
+    private String text;
+
+    @Setup
+    public void setup() {
+        matcher = new QuestionMatcher(List.of("@Helper", "@Battista", "@AI"));
+        text = switch (message) {
+            case "chat" -> "lol that creeper just blew up my whole base";
+            case "question" -> "does anyone know how to   claim land on this server?";
+            case "tagged" -> "@Helper how do I set a home with the   essentials plugin";
+            case "long_chat" -> "ok so ".repeat(40) + "anyway I'm heading to the nether now, see you all at spawn later";
+            default -> throw new IllegalArgumentException(message);
+        };
+    }
+
+    @Benchmark
+    public QuestionMatcher.Match match() {
+        return matcher.match(text, true, true);
+    }
+}
@@ -0,0 +1,269 @@
+package org.itsmanu.battistaAiSpigot.loadtest;
+
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.entity.Player;
+import org.itsmanu.battistaAiSpigot.BattistaAiSpigot;
+import org.itsmanu.battistaAiSpigot.dto.LatencyHistogram;
+import org.itsmanu.battistaAiSpigot.dto.enums.ChatFilterStage;
+import org.itsmanu.battistaAiSpigot.dto.enums.MetricCounter;
+import org.itsmanu.battistaAiSpigot.dto.enums.MetricHistogram;
+import org.itsmanu.battistaAiSpigot.listeners.ChatListener;
+import org.itsmanu.battistaAiSpigot.utils.CacheUtil;
+import org.itsmanu.battistaAiSpigot.utils.CircuitBreakerUtil;
+import org.itsmanu.battistaAiSpigot.utils.MetricsUtil;
+import org.itsmanu.battistaAiSpigot.utils.RequestQueueUtil;
+import org.mockbukkit.mockbukkit.MockBukkit;
+import org.mockbukkit.mockbukkit.ServerMock;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offline load test of the whole question pipeline, against a local stub backend.
+ * <p>
+ * The plugin runs on a mock server, and simulated players ask questions at a fixed rate, in public chat or with
+ * /ask. Each question goes through the real pipeline: the chat listener filters, the command, the rate limits,
+ * the request queue, the HTTP client and the answer renderer. Outcomes are read from the plugin's own counters.
+ * Options are passed as key=value arguments, e.g.
+ * {@code java -cp benchmarks/target/benchmarks.jar org.itsmanu.battistaAiSpigot.loadtest.LoadTest questions=10000 rate=200}
+ */
+public class LoadTest {
+
+    private static final Map<String, String> DEFAULTS = Map.ofEntries(
+            // simulated players asking questions
+            Map.entry("players", "500"),
+            // questions asked in total
+            Map.entry("questions", "5000"),
+            // questions asked per second
+            Map.entry("rate", "50"),
+            // share of questions asked with /ask, the others are asked in public chat
+            Map.entry("private_share", "0.2"),
+            // share of questions repeating a common question, answered by the cache
+            Map.entry("repeat_share", "0.1"),
+            // median answer latency of the stub backend, in milliseconds
+            Map.entry("latency", "800"),
+            // spread of the answer latency, the sigma of its log-normal distribution
+            Map.entry("latency_sigma", "0.5"),
+            // share of answers failing with a server error
+            Map.entry("error_rate", "0.01"),
+            // share of answers never sent, running into the timeout
+            Map.entry("hang_rate", "0.0"),
+            // request timeout, in seconds
+            Map.entry("timeout", "10"),
+            // player and global limits, per minute/hour/day
+            Map.entry("player_limits", "3/60/120"),
+            Map.entry("global_limits", "100000/1000000/10000000"),
+            // request queue size
+            Map.entry("max_concurrent_requests", "16"),
+            Map.entry("max_queued_requests", "200"),
+            // seed of the question schedule, so runs are repeatable
+            Map.entry("seed", "42")
+    );
+
+    // time without any progress after which the run is over
+    private static final long QUIET_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private static final String[] COMMON_QUESTIONS = {
+            "how do I claim land?",
+            "how do I set a home?",
+            "where is the shop?",
+            "how do I join a team?"
+    };
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+
+        StubBackend backend = new StubBackend(
+                Long.parseLong(options.get("latency")),
+                Double.parseDouble(options.get("latency_sigma")),
+                Double.parseDouble(options.get("error_rate")),
+                Double.parseDouble(options.get("hang_rate")));
+        backend.start();
+
+        ServerMock server = MockBukkit.mock();
+        try {
+            BattistaAiSpigot plugin = MockBukkit.load(BattistaAiSpigot.class);
+            configure(plugin, options, backend);
+            server.dispatchCommand(server.getConsoleSender(), "battista reload");
+
+            List<Player> players = new ArrayList<>();
+            int playerCount = Integer.parseInt(options.get("players"));
+            for (int i = 0; i < playerCount; i++) {
+                players.add(server.addPlayer());
+            }
+
+            run(server, players, options, backend);
+        } finally {
+            MockBukkit.unmock();
+            backend.shutdown();
+        }
+        // the HTTP client threads linger for a while after the last request
+        System.exit(0);
+    }
+
+    /**
+     * Points the plugin to the stub backend and applies the limits of the load test, through the configuration
+     * file and a reload like an administrator would.
+     */
+    private static void configure(BattistaAiSpigot plugin, Map<String, String> options, StubBackend backend) {
+        FileConfiguration config = plugin.getConfig();
+        config.set("debug", false);
+        config.set("tab.enabled", false);
+        config.set("endpoint.answer-url", backend.getUrl(StubBackend.ANSWER_PATH));
+        config.set("endpoint.list-url", backend.getUrl(StubBackend.LIST_PATH));
+        config.set("endpoint.timeout", Integer.parseInt(options.get("timeout")));
+        config.set("queue.max_concurrent_requests", Integer.parseInt(options.get("max_concurrent_requests")));
+        config.set("queue.max_queued_requests", Integer.parseInt(options.get("max_queued_requests")));
+        setLimits(config, "limits.ai_requests_player", options.get("player_limits"));
+        setLimits(config, "limits.ai_requests_global", options.get("global_limits"));
+        plugin.saveConfig();
+    }
+
+    private static void setLimits(FileConfiguration config, String path, String limits) {
+        String[] values = limits.split("/");
+        config.set(path + ".requests_per_minute", Integer.parseInt(values[0]));
+        config.set(path + ".requests_per_hour", Integer.parseInt(values[1]));
+        config.set(path + ".requests_per_day", Integer.parseInt(values[2]));
+    }
+
+    private static void run(ServerMock server, List<Player> players, Map<String, String> options, StubBackend backend)
+            throws InterruptedException {
+        int questions = Integer.parseInt(options.get("questions"));
+        double rate = Double.parseDouble(options.get("rate"));
+        double privateShare = Double.parseDouble(options.get("private_share"));
+        double repeatShare = Double.parseDouble(options.get("repeat_share"));
+        long timeoutNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("timeout")));
+        Random random = new Random(Long.parseLong(options.get("seed")));
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long heapBefore = usedHeapAfterGc(memory);
+        long peakHeap = heapBefore;
+
+        long intervalNanos = Math.round(TimeUnit.SECONDS.toNanos(1) / rate);
+        long startedAt = System.nanoTime();
+        long lastSample = startedAt;
+        long lastProgressAt = startedAt;
+        long lastProgress = -1;
+        int asked = 0;
+        int chatQuestions = 0;
+        int commandQuestions = 0;
+
+        System.out.println("Asking " + questions + " questions from " + players.size() + " players at " + rate + "/s...");
+        while (true) {
+            long now = System.nanoTime();
+            while (asked < questions && startedAt + asked * intervalNanos <= now) {
+                asked++;
+                Player player = players.get(random.nextInt(players.size()));
+                String question = random.nextDouble() < repeatShare
+                        ? COMMON_QUESTIONS[random.nextInt(COMMON_QUESTIONS.length)]
+                        : "question " + asked + " from " + player.getName() + "?";
+
+                // the same entry points as real players: /ask, or a chat message firing the async chat event
+                if (random.nextDouble() < privateShare) {
+                    commandQuestions++;
+                    player.performCommand("ask " + question);
+                } else {
+                    chatQuestions++;
+                    player.chat(question);
+                }
+            }
+
+            // commands, answers and broadcasts run as tasks on the main thread
+            server.getScheduler().performOneTick();
+
+            if (now - lastSample >= TimeUnit.SECONDS.toNanos(1)) {
+                lastSample = now;
+                peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage().getUsed());
+            }
+
+            // done once every question was asked and the plugin went quiet, with nothing running or queued
+            long progress = ChatListener.getScannedMessages() + completedRequests() + CacheUtil.getHits();
+            if (progress != lastProgress) {
+                lastProgress = progress;
+                lastProgressAt = now;
+            }
+            boolean idle = RequestQueueUtil.getRunningRequests() == 0 && RequestQueueUtil.getQueuedRequests() == 0;
+            if (asked >= questions && idle && now - lastProgressAt >= QUIET_NANOS) {
+                break;
+            }
+            if (asked >= questions && now - lastProgressAt > 2 * timeoutNanos) {
+                System.out.println((RequestQueueUtil.getRunningRequests() + RequestQueueUtil.getQueuedRequests())
+                        + " requests never completed, giving up");
+                break;
+            }
+            Thread.sleep(1);
+        }
+        double seconds = (System.nanoTime() - startedAt - (asked >= questions ? QUIET_NANOS : 0)) / 1e9;
+        long heapAfter = usedHeapAfterGc(memory);
+
+        System.out.println();
+        System.out.printf("Duration: %.1fs%n", seconds);
+        System.out.printf("Questions: %d asked (%d in chat, %d with /ask), %.1f requests completed/s%n", asked,
+                chatQuestions, commandQuestions, completedRequests() / seconds);
+        System.out.println("Chat: " + ChatListener.getScannedMessages() + " scanned, " + ChatListener.getDetectedQuestions()
+                + " questions detected, " + ChatListener.getAnsweredMessages() + " answered");
+        for (ChatFilterStage stage : ChatFilterStage.values()) {
+            long dropped = ChatListener.getDroppedMessages(stage);
+            if (dropped > 0) {
+                System.out.println("  dropped (" + stage.name().toLowerCase() + "): " + dropped);
+            }
+        }
+        System.out.println("Rate limited: " + MetricsUtil.get(MetricCounter.PLAYER_RATE_LIMITED) + " by player limits, "
+                + MetricsUtil.get(MetricCounter.GLOBAL_RATE_LIMITED) + " by global limits");
+        for (MetricHistogram histogram : MetricHistogram.values()) {
+            printHistogram(histogram);
+        }
+        System.out.println("Requests: " + MetricsUtil.get(MetricCounter.REQUESTS_SUCCEEDED) + " succeeded, "
+                + MetricsUtil.get(MetricCounter.REQUESTS_FAILED) + " failed, "
+                + MetricsUtil.get(MetricCounter.REQUESTS_TIMED_OUT) + " timed out");
+        System.out.println("Answer cache: " + CacheUtil.getHits() + " hits, " + CacheUtil.getMisses() + " misses");
+        System.out.println("Request queue: " + RequestQueueUtil.getShedRequests() + " shed, "
+                + RequestQueueUtil.getRejectedRequests() + " rejected");
+        System.out.println("Circuit breaker: " + CircuitBreakerUtil.getState().name().toLowerCase() + ", "
+                + CircuitBreakerUtil.getRejectedRequests() + " failed fast");
+        System.out.println("Stub backend: " + backend.getAnswers() + " answers, " + backend.getErrors() + " errors, "
+                + backend.getHangs() + " hangs");
+        System.out.printf("Heap: %.1fMB before, %.1fMB peak, %.1fMB after (%+.1fMB)%n", megabytes(heapBefore),
+                megabytes(peakHeap), megabytes(heapAfter), megabytes(heapAfter - heapBefore));
+    }
+
+    private static long completedRequests() {
+        return MetricsUtil.get(MetricCounter.REQUESTS_SUCCEEDED) + MetricsUtil.get(MetricCounter.REQUESTS_FAILED)
+                + MetricsUtil.get(MetricCounter.REQUESTS_TIMED_OUT);
+    }
+
+    private static void printHistogram(MetricHistogram metric) {
+        LatencyHistogram histogram = MetricsUtil.getHistogram(metric);
+        String unit = metric.getUnit();
+        System.out.println(metric.name().toLowerCase().replace('_', ' ') + ": p50 " + histogram.getPercentile(50) + unit
+                + ", p90 " + histogram.getPercentile(90) + unit + ", p99 " + histogram.getPercentile(99) + unit
+                + ", max " + histogram.getMax() + unit);
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0 || !DEFAULTS.containsKey(arg.substring(0, separator))) {
+                throw new IllegalArgumentException("Unknown option " + arg + ", available options: " + DEFAULTS.keySet());
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        return options;
+    }
+
+    private static long usedHeapAfterGc(MemoryMXBean memory) {
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static double megabytes(long bytes) {
+        return bytes / (1024.0 * 1024.0);
+    }
+}
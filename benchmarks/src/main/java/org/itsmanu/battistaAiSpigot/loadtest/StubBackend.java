@@ -0,0 +1,108 @@
+package org.itsmanu.battistaAiSpigot.loadtest;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for Battista AI Backend, answering with a configurable latency and error distribution.
+ * Answer latencies follow a log-normal distribution, like the response times of a real model.
+ */
+public class StubBackend extends Dispatcher {
+
+    public static final String ANSWER_PATH = "/v2/answer";
+    public static final String LIST_PATH = "/v2/list_documents";
+
+    private static final String ANSWER = "You can claim land with **/claim**, then use **/trust <player>** to let your friends build. "
+            + "Claims are protected from griefing, and you can check their borders with a golden shovel.";
+
+    private final MockWebServer server = new MockWebServer();
+    private final long medianLatencyMillis;
+    private final double latencySigma;
+    private final double errorRate;
+    private final double hangRate;
+
+    private final AtomicLong answers = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong hangs = new AtomicLong();
+
+    /**
+     * @param medianLatencyMillis The median answer latency.
+     * @param latencySigma        The spread of the latency, the sigma of the log-normal distribution (0 for a fixed latency).
+     * @param errorRate           The share of answers failing with a server error.
+     * @param hangRate            The share of answers never sent, so the plugin runs into its timeout.
+     */
+    public StubBackend(long medianLatencyMillis, double latencySigma, double errorRate, double hangRate) {
+        this.medianLatencyMillis = medianLatencyMillis;
+        this.latencySigma = latencySigma;
+        this.errorRate = errorRate;
+        this.hangRate = hangRate;
+        server.setDispatcher(this);
+    }
+
+    public void start() throws IOException {
+        server.start();
+    }
+
+    public void shutdown() throws IOException {
+        server.shutdown();
+    }
+
+    public String getUrl(String path) {
+        return server.url(path).toString();
+    }
+
+    @NotNull
+    @Override
+    public MockResponse dispatch(@NotNull RecordedRequest request) {
+        String path = request.getPath() == null ? "" : request.getPath();
+        if (path.startsWith(LIST_PATH)) {
+            return new MockResponse()
+                    .setHeader("Content-Type", "application/json")
+                    .setHeader("ETag", "\"load-test\"")
+                    .setBody("[{\"path\": \"guides/claims.md\"}, {\"path\": \"guides/economy.md\"}]");
+        }
+        if (!path.startsWith(ANSWER_PATH) || "HEAD".equals(request.getMethod())) {
+            return new MockResponse();
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double outcome = random.nextDouble();
+        if (outcome < hangRate) {
+            hangs.incrementAndGet();
+            return new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE);
+        }
+
+        long latency = Math.round(medianLatencyMillis * Math.exp(latencySigma * random.nextGaussian()));
+        if (outcome < hangRate + errorRate) {
+            errors.incrementAndGet();
+            return new MockResponse().setResponseCode(500).setHeadersDelay(latency, TimeUnit.MILLISECONDS);
+        }
+
+        answers.incrementAndGet();
+        return new MockResponse()
+                .setHeader("Content-Type", "application/json")
+                .setBody("{\"response\": \"" + ANSWER + "\", \"sources\": [{\"path\": \"guides/claims.md\"}]}")
+                .setHeadersDelay(latency, TimeUnit.MILLISECONDS);
+    }
+
+    public long getAnswers() {
+        return answers.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getHangs() {
+        return hangs.get();
+    }
+}
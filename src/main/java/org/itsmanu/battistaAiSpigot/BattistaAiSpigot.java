@@ -4,10 +4,21 @@ import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.itsmanu.battistaAiSpigot.commands.AskCommand;
 import org.itsmanu.battistaAiSpigot.commands.BattistaCommand;
+import org.itsmanu.battistaAiSpigot.dto.Settings;
 import org.itsmanu.battistaAiSpigot.listeners.ChatListener;
 import org.itsmanu.battistaAiSpigot.listeners.PlayerInteractiveAskListener;
+import org.itsmanu.battistaAiSpigot.utils.BackendUtil;
+import org.itsmanu.battistaAiSpigot.utils.ChatUtil;
+import org.itsmanu.battistaAiSpigot.utils.CircuitBreakerUtil;
+import org.itsmanu.battistaAiSpigot.utils.DebugUtil;
 import org.itsmanu.battistaAiSpigot.utils.DependencyUtil;
+import org.itsmanu.battistaAiSpigot.utils.DocumentsUtil;
+import org.itsmanu.battistaAiSpigot.utils.HedgeUtil;
+import org.itsmanu.battistaAiSpigot.utils.HttpUtil;
+import org.itsmanu.battistaAiSpigot.utils.InteractiveSessionUtil;
+import org.itsmanu.battistaAiSpigot.utils.LimitsSnapshotUtil;
 import org.itsmanu.battistaAiSpigot.utils.LimitsUtil;
+import org.itsmanu.battistaAiSpigot.utils.MetricsUtil;
 import org.itsmanu.battistaAiSpigot.utils.TabUtil;
 
 import java.util.Objects;
@@ -15,6 +26,7 @@ import java.util.Objects;
 public final class BattistaAiSpigot extends JavaPlugin {
 
     private static BattistaAiSpigot instance;
+    private static volatile Settings settings;
 
     /**
      * Called when the plugin is enabled. Initializes the plugin by setting up the instance,
@@ -29,6 +41,18 @@ public final class BattistaAiSpigot extends JavaPlugin {
         // Save the default configuration if it doesn't exist
         saveDefaultConfig();
 
+        // Build the settings snapshot used by every hot path
+        loadSettings();
+        // Restore the rate limits saved before the last shutdown
+        LimitsSnapshotUtil.load();
+        LimitsUtil.initializeStore();
+        BackendUtil.initialize();
+        HttpUtil.prewarmConnections();
+
+        // Debug lines are written to the console by a background thread
+        DebugUtil.startWriter();
+        ChatUtil.startRenderer();
+
         // Register commands
         registerCommands();
 
@@ -36,7 +60,7 @@ public final class BattistaAiSpigot extends JavaPlugin {
         registerEvents();
 
         // Refresh AI Helper on tab
-        if (getConfig().getBoolean("tab.enabled", false)) {
+        if (settings.tab().enabled()) {
             if(DependencyUtil.checkProtocolLib()){
                 TabUtil.enableTabFeature();
             } else {
@@ -46,34 +70,61 @@ public final class BattistaAiSpigot extends JavaPlugin {
 
         // start cleanup task on rate limits
         LimitsUtil.startCleanupTask();
+        LimitsSnapshotUtil.startSaveTask();
+        InteractiveSessionUtil.startTimeoutTask();
+        BackendUtil.startProbeTask();
+        CircuitBreakerUtil.startProbeTask();
+        DocumentsUtil.startRefreshTask();
+        MetricsUtil.startExportTask();
 
         getLogger().info("Battista successfully enabled!");
-        getLogger().info("Configured Battista answer backend endpoint: " + getConfig().getString("endpoint.answer-url"));
-        getLogger().info("Configured Battista list backend endpoint: " + getConfig().getString("endpoint.list-url"));
+        for (var backend : settings.endpoint().backends()) {
+            getLogger().info("Configured Battista answer backend endpoint: " + backend.answerUrl());
+            getLogger().info("Configured Battista list backend endpoint: " + backend.listUrl());
+        }
 
         // Log active modes
-        if (getConfig().getBoolean("chat.auto_detect_questions.enabled", false)) {
+        if (settings.chat().autoDetectQuestions()) {
             getLogger().info("Battista Automatic question detection: ENABLED");
         }
-        if (getConfig().getBoolean("chat.tagging.enabled", false)) {
+        if (settings.chat().taggingEnabled()) {
             getLogger().info("Battista Tag question detection: ENABLED");
-            getLogger().info("Battista chat tag: " + getConfig().getString("chat.tag"));
+            getLogger().info("Battista chat tags: " + String.join(", ", settings.chat().tags()));
         }
 
     }
 
     @Override
     public void onDisable() {
-        if (DependencyUtil.checkProtocolLib() && getConfig().getBoolean("tab.enabled", false)) {
+        if (DependencyUtil.checkProtocolLib() && settings.tab().enabled()) {
             TabUtil.disableTabFeature();
         }
 
-        // Stop cleanup task on rate limits
+        // Save the rate limits before they are cleared, then stop cleanup task on rate limits
+        LimitsSnapshotUtil.stopSaveTask();
+        LimitsUtil.closeStore();
         LimitsUtil.stopCleanupTask();
+        InteractiveSessionUtil.stopTimeoutTask();
+        BackendUtil.stopProbeTask();
+        CircuitBreakerUtil.stopProbeTask();
+        DocumentsUtil.stopRefreshTask();
+        MetricsUtil.stopExportTask();
+        HedgeUtil.shutdown();
+
+        ChatUtil.stopRenderer();
+        DebugUtil.stopWriter();
 
         getLogger().info("Battista successfully disabled!");
     }
 
+    /**
+     * Builds a new settings snapshot from the current configuration and publishes it.
+     * Requests already running keep the snapshot they started with.
+     */
+    public void loadSettings() {
+        settings = Settings.load(getConfig());
+    }
+
     /**
      * Registers all commands for the plugin.
      */
@@ -118,4 +169,13 @@ public final class BattistaAiSpigot extends JavaPlugin {
     public static FileConfiguration getConfigs() {
         return instance.getConfig();
     }
+
+    /**
+     * Retrieves the current settings snapshot, prefer it over {@link #getConfigs()} on hot paths.
+     *
+     * @return The immutable settings built from the configuration on enable or on the last reload.
+     */
+    public static Settings getSettings() {
+        return settings;
+    }
 }
@@ -5,12 +5,13 @@ import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
-import org.bukkit.scheduler.BukkitRunnable;
-import org.bukkit.scheduler.BukkitTask;
 import org.itsmanu.battistaAiSpigot.BattistaAiSpigot;
+import org.itsmanu.battistaAiSpigot.dto.enums.DebugCategory;
 import org.itsmanu.battistaAiSpigot.utils.ChatUtil;
-import org.itsmanu.battistaAiSpigot.utils.HttpUtil;
+import org.itsmanu.battistaAiSpigot.utils.DebugUtil;
+import org.itsmanu.battistaAiSpigot.utils.InteractiveSessionUtil;
 import org.itsmanu.battistaAiSpigot.utils.LimitsUtil;
+import org.itsmanu.battistaAiSpigot.utils.QuestionMatcher;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.logging.Logger;
@@ -72,14 +73,13 @@ public class AskCommand implements CommandExecutor {
         }
 
         // Log the question if debug mode is enabled
-        ChatUtil.sendDebug("Command /ask executed by " + player.getName() + ": " + question);
+        DebugUtil.trace(DebugCategory.CHAT, () -> "Command /ask executed by " + player.getName() + ": " + question);
 
         var processingMessage = ChatUtil.formatConfigMessage("messages.processing", "Processing question...");
 
         // Send the question to the AI - private response (only to the player who executed the command)
         // Note: this will automatically handle thread switching
-        var request = HttpUtil.askAI(question);
-        ChatUtil.sendAiAnswer(request, player, processingMessage, logger);
+        ChatUtil.askAndSendAiAnswer(question, player, processingMessage, logger);
         return true;
     }
 
@@ -108,24 +108,19 @@ public class AskCommand implements CommandExecutor {
 
     /**
      * Combines the command arguments into a single question string.
+     * The question is normalized the same way as chat questions, so both share answer cache entries.
      *
      * @param args The arguments provided with the command.
      * @return The combined question string with proper spacing.
      */
     private String buildQuestion(String[] args) {
-        StringBuilder questionBuilder = new StringBuilder();
-        for (int i = 0; i < args.length; i++) {
-            questionBuilder.append(args[i]);
-            if (i < args.length - 1) {
-                questionBuilder.append(" ");
-            }
-        }
-        return questionBuilder.toString().trim();
+        return QuestionMatcher.normalize(String.join(" ", args));
     }
 
     private void handleInteractiveAsk(Player player) {
-        // Check if player already has a pending question
-        if (LimitsUtil.hasPendingQuestions(player)) {
+        // Open the session, unless the player already has one
+        // the timeout is handled by the shared timeout task of the sessions
+        if (!InteractiveSessionUtil.open(player.getUniqueId())) {
             var alt_message = "You are in interactive mode, just ask without commands!";
             var message = ChatUtil.formatConfigMessage("messages.ask_interactive_pending", alt_message);
             player.sendMessage(message);
@@ -135,27 +130,5 @@ public class AskCommand implements CommandExecutor {
         // Send initial message
         var initialMessage = ChatUtil.formatConfigMessage("messages.ask_interactive", "I'm here for you, ask away!");
         player.sendMessage(initialMessage);
-
-        // get timeout from config
-        long timeout = BattistaAiSpigot.getConfigs().getInt("limits.inteactive_timeout", 60) * 20L;
-
-        // Create timeout task
-        BukkitTask timeoutTask = new BukkitRunnable() {
-            @Override
-            public void run() {
-                // Send timeout message
-                if (player.isOnline()) {
-                    var alt_message = "Question timeout! use **/ask** if you need me again.";
-                    var message = ChatUtil.formatConfigMessage("messages.ask_inteactive_timeout", alt_message);
-                    player.sendMessage(message);
-                }
-
-                // Remove from pending questions
-                LimitsUtil.removePendingQuestions(player);
-            }
-        }.runTaskLater(BattistaAiSpigot.getInstance(), timeout);
-
-        // Store the task so we can cancel it if needed
-        LimitsUtil.addPendingQuestions(player, timeoutTask);
     }
 }
@@ -1,14 +1,35 @@
 package org.itsmanu.battistaAiSpigot.commands;
 
 import de.themoep.minedown.adventure.MineDown;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.format.NamedTextColor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabCompleter;
 import org.bukkit.entity.Player;
 import org.itsmanu.battistaAiSpigot.BattistaAiSpigot;
+import org.itsmanu.battistaAiSpigot.dto.Backend;
+import org.itsmanu.battistaAiSpigot.dto.DocumentList;
+import org.itsmanu.battistaAiSpigot.dto.LatencyHistogram;
+import org.itsmanu.battistaAiSpigot.dto.enums.ChatFilterStage;
+import org.itsmanu.battistaAiSpigot.dto.enums.MetricCounter;
+import org.itsmanu.battistaAiSpigot.dto.enums.MetricHistogram;
+import org.itsmanu.battistaAiSpigot.listeners.ChatListener;
+import org.itsmanu.battistaAiSpigot.utils.BackendUtil;
+import org.itsmanu.battistaAiSpigot.utils.CacheUtil;
 import org.itsmanu.battistaAiSpigot.utils.ChatUtil;
+import org.itsmanu.battistaAiSpigot.utils.CircuitBreakerUtil;
+import org.itsmanu.battistaAiSpigot.utils.DebugUtil;
+import org.itsmanu.battistaAiSpigot.utils.DocumentsUtil;
+import org.itsmanu.battistaAiSpigot.utils.HedgeUtil;
 import org.itsmanu.battistaAiSpigot.utils.HttpUtil;
+import org.itsmanu.battistaAiSpigot.utils.InteractiveSessionUtil;
+import org.itsmanu.battistaAiSpigot.utils.LimitsSnapshotUtil;
+import org.itsmanu.battistaAiSpigot.utils.LimitsUtil;
+import org.itsmanu.battistaAiSpigot.utils.MetricsUtil;
+import org.itsmanu.battistaAiSpigot.utils.RedisLimiterStore;
+import org.itsmanu.battistaAiSpigot.utils.RequestQueueUtil;
 import org.itsmanu.battistaAiSpigot.utils.TabUtil;
 import org.jetbrains.annotations.NotNull;
 
@@ -58,7 +79,15 @@ public class BattistaCommand implements CommandExecutor, TabCompleter {
                 break;
 
             case "documents":
-                sendDocumentList(sender);
+                sendDocumentList(sender, args);
+                break;
+
+            case "stats":
+                sendStats(sender);
+                break;
+
+            case "status":
+                sendStatus(sender);
                 break;
 
             default:
@@ -86,10 +115,38 @@ public class BattistaCommand implements CommandExecutor, TabCompleter {
         try {
             // Reload the plugin configuration
             plugin.reloadConfig();
+            plugin.loadSettings();
             HttpUtil.initializeHttpClient();
+            BackendUtil.initialize();
+            HttpUtil.prewarmConnections();
+
+            // Drop cached answers, the backend or its knowledge source may have changed
+            logger.info("Battista answer cache cleared (hits: " + CacheUtil.getHits() + ", misses: " + CacheUtil.getMisses()
+                    + ", evictions: " + CacheUtil.getEvictions() + ")");
+            CacheUtil.invalidate();
+
+            // Restart the probes with the new intervals, and give the circuit breaker a fresh start for the new backends
+            BackendUtil.stopProbeTask();
+            BackendUtil.startProbeTask();
+            CircuitBreakerUtil.stopProbeTask();
+            CircuitBreakerUtil.startProbeTask();
+
+            // Drop the cached document list, and refresh it from the new backends
+            DocumentsUtil.stopRefreshTask();
+            DocumentsUtil.startRefreshTask();
+
+            // Connect to the shared rate limits again, the settings may have changed
+            LimitsUtil.initializeStore();
+
+            // Reschedule the rate limit saves with the new interval, the state in memory is kept
+            LimitsSnapshotUtil.restartSaveTask();
+
+            // Restart the metrics export with the new file and interval
+            MetricsUtil.stopExportTask();
+            MetricsUtil.startExportTask();
 
             // Refresh AI Helper tab feature
-            if (BattistaAiSpigot.getConfigs().getBoolean("tab.enabled", false)) {
+            if (BattistaAiSpigot.getSettings().tab().enabled()) {
                 TabUtil.enableTabFeature();
             } else {
                 TabUtil.disableTabFeature();
@@ -116,19 +173,23 @@ public class BattistaCommand implements CommandExecutor, TabCompleter {
      * @param sender The sender who executed the command.
      */
     private void sendHelp(CommandSender sender) {
-        String commands = "Battista commands:\n /battista reload\n/battista help\n/battista documents";
-        var message = BattistaAiSpigot.getConfigs().getString("messages.help", commands);
-
-        String[] lines = message.split("\n");
+        String commands = "Battista commands:\n /battista reload\n/battista help\n/battista documents\n/battista stats\n/battista status";
+        var lines = BattistaAiSpigot.getSettings().templates().getLines("messages.help", commands);
 
-        // Send each line with color codes translated
-        for (String line : lines) {
-            var formattedLine = new MineDown(line).toComponent();
-            sender.sendMessage(formattedLine);
+        // Send each line, color codes were translated when the configuration was loaded
+        for (var line : lines) {
+            sender.sendMessage(line);
         }
     }
 
-    private void sendDocumentList(CommandSender sender) {
+    /**
+     * Displays a page of the documents Battista uses as knowledge sources.
+     * Pages are served from the cached document list, the backend is only reached when there is no list yet.
+     *
+     * @param sender The sender who executed the command.
+     * @param args   The arguments passed with the command, the second one is the page number.
+     */
+    private void sendDocumentList(CommandSender sender, String[] args) {
         // Check if the sender has the required permission
         if (!sender.hasPermission("battista.documents")) {
             var message = ChatUtil.formatConfigMessage("messages.no_permission", "You need battista.documents permission");
@@ -142,13 +203,209 @@ public class BattistaCommand implements CommandExecutor, TabCompleter {
             sender.sendMessage(message);
             return;
         }
-        var processingMessage = ChatUtil.formatConfigMessage("messages.requesting_documents", "Requesting documents...");
 
-        // Request the list of documents to the remote backend
-        // Note: this will automatically handle thread switching
-        var request = HttpUtil.getDocuments();
-        ChatUtil.sendAiAnswer(request, player, processingMessage, logger);
+        int page = 1;
+        if (args.length > 1) {
+            try {
+                page = Math.max(1, Integer.parseInt(args[1]));
+            } catch (NumberFormatException e) {
+                // not a number, show the first page
+            }
+        }
+        int requestedPage = page;
+
+        var request = DocumentsUtil.getDocuments();
+        if (!request.isDone()) {
+            var processingMessage = ChatUtil.formatConfigMessage("messages.requesting_documents", "Requesting documents...");
+            player.sendMessage(processingMessage);
+        }
+
+        // Sending a message to a player is safe from the HTTP thread
+        request.thenAccept(documents -> {
+            if (player.isOnline()) {
+                sendDocumentPage(player, documents, requestedPage);
+            }
+        });
+    }
+
+    /**
+     * Sends a page of the document list.
+     *
+     * @param sender    The sender to send the page to.
+     * @param documents The document list, or null if it could not be retrieved.
+     * @param page      The page number, starting from 1.
+     */
+    private void sendDocumentPage(CommandSender sender, DocumentList documents, int page) {
+        if (documents == null) {
+            var message = CircuitBreakerUtil.isOpen()
+                    ? ChatUtil.formatConfigMessage("messages.service_unavailable", "The AI service is currently unavailable.")
+                    : ChatUtil.formatConfigMessage("messages.cant_process", "Can't process request");
+            sender.sendMessage(message);
+            return;
+        }
+
+        List<String> paths = documents.paths();
+        if (paths.isEmpty()) {
+            sender.sendMessage(ChatUtil.formatConfigMessage("messages.documents_empty", "No indexed documents."));
+            return;
+        }
+
+        int pageSize = BattistaAiSpigot.getSettings().documents().pageSize();
+        int pages = (paths.size() + pageSize - 1) / pageSize;
+        int shownPage = Math.min(page, pages);
+
+        sender.sendMessage(ChatUtil.formatConfigMessage("messages.documents_header", "Indexed documents ({count}), page {page}/{pages}:",
+                "{count}", String.valueOf(paths.size() + documents.omitted()),
+                "{page}", String.valueOf(shownPage),
+                "{pages}", String.valueOf(pages)));
+
+        // paths are sent as plain text, so they are never parsed as formatting
+        int from = (shownPage - 1) * pageSize;
+        for (String path : paths.subList(from, Math.min(from + pageSize, paths.size()))) {
+            sender.sendMessage(Component.text(" - " + path, NamedTextColor.GRAY));
+        }
+
+        if (shownPage < pages) {
+            sender.sendMessage(ChatUtil.formatConfigMessage("messages.documents_next", "Use /battista documents {next} for the next page",
+                    "{next}", String.valueOf(shownPage + 1)));
+        } else if (documents.omitted() > 0) {
+            sender.sendMessage(ChatUtil.formatConfigMessage("messages.documents_omitted", "{omitted} more documents are not listed.",
+                    "{omitted}", String.valueOf(documents.omitted())));
+        }
+    }
+
+    /**
+     * Displays the runtime statistics of the plugin.
+     *
+     * @param sender The sender who executed the command.
+     */
+    private void sendStats(CommandSender sender) {
+        // Check if the sender has the required permission
+        if (!sender.hasPermission("battista.stats")) {
+            var message = ChatUtil.formatConfigMessage("messages.no_permission", "You need battista.stats permission");
+            sender.sendMessage(message);
+            return;
+        }
+
+        List<String> lines = new ArrayList<>();
+        lines.add("&7Battista statistics:");
+
+        lines.add("&bChat filter");
+        lines.add("&7 Scanned messages: &f" + ChatListener.getScannedMessages());
+        lines.add("&7 Detected questions: &f" + ChatListener.getDetectedQuestions());
+        lines.add("&7 Answered messages: &f" + ChatListener.getAnsweredMessages());
+        lines.add("&7 Interactive sessions: &f" + InteractiveSessionUtil.getOpenSessions());
+        for (ChatFilterStage stage : ChatFilterStage.values()) {
+            lines.add("&7 Dropped (" + stage.name().toLowerCase() + "): &f" + ChatListener.getDroppedMessages(stage));
+        }
+
+        lines.add("&bRate limits");
+        lines.add("&7 Rate limited (global): &f" + MetricsUtil.get(MetricCounter.GLOBAL_RATE_LIMITED)
+                + " &7(player): &f" + MetricsUtil.get(MetricCounter.PLAYER_RATE_LIMITED));
+        lines.add("&7 Players with rate limits: &f" + LimitsUtil.getLocalStore().getTrackedPlayers()
+                + " &7(" + LimitsUtil.getLocalStore().getPlayerLimitsMemory() / 1024 + " KB) &7Expired: &f"
+                + MetricsUtil.get(MetricCounter.PLAYER_LIMITS_EXPIRED));
+        if (LimitsUtil.getStore() instanceof RedisLimiterStore shared) {
+            lines.add("&7 Shared reservations: &f" + shared.getReservations() + " &7Redis failures: &f" + shared.getFallbacks());
+        }
+
+        lines.add("&bRequests");
+        lines.add("&7 Succeeded: &f" + MetricsUtil.get(MetricCounter.REQUESTS_SUCCEEDED)
+                + " &7Failed: &f" + MetricsUtil.get(MetricCounter.REQUESTS_FAILED)
+                + " &7Timed out: &f" + MetricsUtil.get(MetricCounter.REQUESTS_TIMED_OUT));
+        for (MetricHistogram histogram : MetricHistogram.values()) {
+            lines.add("&7 " + histogram.name().toLowerCase().replace('_', ' ') + ": "
+                    + formatPercentiles(MetricsUtil.getHistogram(histogram), histogram.getUnit()));
+        }
+
+        lines.add("&bAnswer cache");
+        lines.add("&7 Entries: &f" + CacheUtil.getSize());
+        lines.add("&7 Hits: &f" + CacheUtil.getHits() + " &7Misses: &f" + CacheUtil.getMisses()
+                + " &7Evictions: &f" + CacheUtil.getEvictions());
+
+        lines.add("&bConnections");
+        lines.add("&7 Open: &f" + HttpUtil.getConnectionCount() + " &7Idle: &f" + HttpUtil.getIdleConnectionCount());
+        lines.add("&7 Running calls: &f" + HttpUtil.getRunningCalls() + " &7Waiting calls: &f" + HttpUtil.getQueuedCalls());
+
+        lines.add("&bHedged requests");
+        long percentile95 = HedgeUtil.getPercentile95();
+        lines.add("&7 Sent: &f" + HedgeUtil.getSentHedges() + " &7Won: &f" + HedgeUtil.getWonHedges()
+                + " &7Answer p95: &f" + (percentile95 < 0 ? "n/a" : percentile95 + "ms"));
+
+        lines.add("&bRequest queue");
+        lines.add("&7 Running: &f" + RequestQueueUtil.getRunningRequests() + " &7Queued: &f" + RequestQueueUtil.getQueuedRequests());
+        lines.add("&7 Shed: &f" + RequestQueueUtil.getShedRequests() + " &7Rejected: &f" + RequestQueueUtil.getRejectedRequests());
+
+        if (BattistaAiSpigot.getSettings().debug()) {
+            lines.add("&bDebug");
+            lines.add("&7 Dropped trace lines: &f" + DebugUtil.getDroppedLines());
+        }
+
+        for (String line : lines) {
+            sender.sendMessage(new MineDown(line).toComponent());
+        }
+    }
+
+    /**
+     * Formats the percentiles of a histogram for the statistics.
+     *
+     * @param histogram The histogram.
+     * @param unit      The unit of the recorded values.
+     * @return The formatted percentiles, or n/a if nothing was recorded.
+     */
+    private String formatPercentiles(LatencyHistogram histogram, String unit) {
+        if (histogram.getCount() == 0) {
+            return "&fn/a";
+        }
+        return "&7p50 &f" + histogram.getPercentile(50) + unit
+                + " &7p95 &f" + histogram.getPercentile(95) + unit
+                + " &7p99 &f" + histogram.getPercentile(99) + unit
+                + " &7max &f" + histogram.getMax() + unit
+                + " &7(" + histogram.getCount() + ")";
+    }
+
+    /**
+     * Displays the status of the AI backend, as seen by the circuit breaker.
+     *
+     * @param sender The sender who executed the command.
+     */
+    private void sendStatus(CommandSender sender) {
+        // Check if the sender has the required permission
+        if (!sender.hasPermission("battista.status")) {
+            var message = ChatUtil.formatConfigMessage("messages.no_permission", "You need battista.status permission");
+            sender.sendMessage(message);
+            return;
+        }
+
+        var breaker = BattistaAiSpigot.getSettings().circuitBreaker();
+        long since = (System.currentTimeMillis() - CircuitBreakerUtil.getStateChangedAt()) / 1000;
+
+        List<String> lines = new ArrayList<>();
+        lines.add("&7Battista backend status:");
+        if (breaker.enabled()) {
+            lines.add("&7 Circuit: &f" + CircuitBreakerUtil.getState().name().toLowerCase() + " &7for &f" + since + "s");
+            lines.add("&7 Failure rate: &f" + CircuitBreakerUtil.getFailureRate() + "% &7(threshold &f"
+                    + breaker.failureRateThreshold() + "%&7)");
+            lines.add("&7 Slow request rate: &f" + CircuitBreakerUtil.getSlowCallRate() + "% &7(threshold &f"
+                    + breaker.slowCallRateThreshold() + "%&7)");
+            lines.add("&7 Recorded requests: &f" + CircuitBreakerUtil.getRecordedCalls() + "/" + breaker.windowSize());
+            lines.add("&7 Failed fast: &f" + CircuitBreakerUtil.getRejectedRequests());
+        } else {
+            lines.add("&7 Circuit breaker: &fdisabled");
+        }
+        lines.add("&7 Running requests: &f" + RequestQueueUtil.getRunningRequests() + " &7Queued: &f"
+                + RequestQueueUtil.getQueuedRequests());
+
+        for (Backend backend : BackendUtil.getBackends()) {
+            lines.add("&b" + backend.getAnswerUrl() + (backend.isHealthy() ? " &ahealthy" : " &cejected"));
+            lines.add("&7 In progress: &f" + backend.getOutstandingRequests() + " &7Requests: &f" + backend.getRequests()
+                    + " &7Failures: &f" + backend.getFailures() + " &7Avg latency: &f" + backend.getAverageLatency() + "ms");
+            lines.add("&7 Latency: " + formatPercentiles(backend.getLatency(), "ms"));
+        }
 
+        for (String line : lines) {
+            sender.sendMessage(new MineDown(line).toComponent());
+        }
     }
 
     /**
@@ -166,7 +423,7 @@ public class BattistaCommand implements CommandExecutor, TabCompleter {
 
         if (args.length == 1) {
             // Suggestions for the first argument
-            List<String> subcommands = Arrays.asList("reload", "help", "documents");
+            List<String> subcommands = Arrays.asList("reload", "help", "documents", "stats", "status");
 
             for (String subcommand : subcommands) {
                 if (subcommand.toLowerCase().startsWith(args[0].toLowerCase())) {
@@ -177,6 +434,12 @@ public class BattistaCommand implements CommandExecutor, TabCompleter {
                     if (subcommand.equals("documents") && !sender.hasPermission("battista.documents")) {
                         continue;
                     }
+                    if (subcommand.equals("stats") && !sender.hasPermission("battista.stats")) {
+                        continue;
+                    }
+                    if (subcommand.equals("status") && !sender.hasPermission("battista.status")) {
+                        continue;
+                    }
                     completions.add(subcommand);
                 }
             }
@@ -0,0 +1,157 @@
+package org.itsmanu.battistaAiSpigot.dto;
+
+import org.itsmanu.battistaAiSpigot.dto.enums.LoadBalancingPolicy;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A configured AI backend, with the load, health and metrics used to route requests to it.
+ */
+public class Backend {
+
+    // weight of the newest latency in the moving average
+    private static final double EWMA_WEIGHT = 0.2;
+
+    private final String answerUrl;
+    private final String listUrl;
+
+    private final AtomicInteger outstandingRequests = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicBoolean probing = new AtomicBoolean(false);
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private volatile double averageLatency = 0;
+    private volatile boolean healthy = true;
+
+    public Backend(String answerUrl, String listUrl) {
+        this.answerUrl = answerUrl;
+        this.listUrl = listUrl;
+    }
+
+    /**
+     * Records the start of a request to this backend.
+     */
+    public void onRequestStarted() {
+        outstandingRequests.incrementAndGet();
+        requests.incrementAndGet();
+    }
+
+    /**
+     * Records the end of a request to this backend.
+     *
+     * @param failed  Whether the request failed.
+     * @param latency The time the backend took to answer, in milliseconds.
+     * @return the number of consecutive failed requests, 0 if the request succeeded
+     */
+    public int onRequestCompleted(boolean failed, long latency) {
+        outstandingRequests.decrementAndGet();
+        this.latency.record(latency);
+        synchronized (this) {
+            averageLatency = averageLatency == 0 ? latency : averageLatency + EWMA_WEIGHT * (latency - averageLatency);
+        }
+        if (!failed) {
+            consecutiveFailures.set(0);
+            return 0;
+        }
+        failures.incrementAndGet();
+        return consecutiveFailures.incrementAndGet();
+    }
+
+    /**
+     * Records the end of a request that was cancelled, because another attempt answered first.
+     * Hedging cancels the slowest requests, so their elapsed time still counts in the moving average, as the
+     * least the backend would have taken. It can only raise the average, and never counts as a failure.
+     *
+     * @param elapsed The time the request had been running, in milliseconds.
+     */
+    public void onRequestCancelled(long elapsed) {
+        outstandingRequests.decrementAndGet();
+        synchronized (this) {
+            if (elapsed > averageLatency) {
+                averageLatency = averageLatency == 0 ? elapsed : averageLatency + EWMA_WEIGHT * (elapsed - averageLatency);
+            }
+        }
+    }
+
+    /**
+     * Computes the load score of this backend, the backend with the lowest score gets the next request.
+     *
+     * @param policy The load balancing policy.
+     * @return the load score of the backend
+     */
+    public double getScore(LoadBalancingPolicy policy) {
+        int outstanding = outstandingRequests.get();
+        return switch (policy) {
+            case LEAST_OUTSTANDING -> outstanding;
+            // a slow backend with nothing in progress can still be a better pick than a fast, busy one
+            case EWMA -> (averageLatency + 1) * (outstanding + 1);
+        };
+    }
+
+    /**
+     * Marks the backend as unhealthy, so it stops receiving requests until a probe succeeds.
+     *
+     * @return true if the backend was healthy before
+     */
+    public boolean eject() {
+        boolean wasHealthy = healthy;
+        healthy = false;
+        return wasHealthy;
+    }
+
+    /**
+     * Marks the backend as healthy again, after a successful probe.
+     */
+    public void restore() {
+        consecutiveFailures.set(0);
+        healthy = true;
+    }
+
+    /**
+     * Claims the right to probe this backend, so only one probe runs at a time.
+     *
+     * @return true if no other probe is running
+     */
+    public boolean startProbe() {
+        return probing.compareAndSet(false, true);
+    }
+
+    public void endProbe() {
+        probing.set(false);
+    }
+
+    public String getAnswerUrl() {
+        return answerUrl;
+    }
+
+    public String getListUrl() {
+        return listUrl;
+    }
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    public int getOutstandingRequests() {
+        return outstandingRequests.get();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getAverageLatency() {
+        return Math.round(averageLatency);
+    }
+}
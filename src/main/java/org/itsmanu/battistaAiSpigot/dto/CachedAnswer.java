@@ -0,0 +1,14 @@
+package org.itsmanu.battistaAiSpigot.dto;
+
+public record CachedAnswer(String answer, long expiresAt, long size) {
+
+    /**
+     * Checks if the cached answer is past its time to live.
+     *
+     * @param now The current timestamp in milliseconds
+     * @return true if the answer should not be served anymore, false otherwise
+     */
+    public boolean isExpired(long now) {
+        return now >= expiresAt;
+    }
+}
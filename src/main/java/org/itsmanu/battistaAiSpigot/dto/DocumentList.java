@@ -0,0 +1,36 @@
+package org.itsmanu.battistaAiSpigot.dto;
+
+import java.util.List;
+
+/**
+ * Snapshot of the documents the backend uses as knowledge sources.
+ *
+ * @param paths     The paths of the listed documents.
+ * @param omitted   The number of documents left out because the list reached its maximum length.
+ * @param etag      The entity tag of the list sent by the backend, or null if it sent none.
+ * @param hash      The hash of the listed paths, used to detect unchanged lists when there is no entity tag.
+ * @param fetchedAt The timestamp the list was last confirmed by the backend, in milliseconds since epoch.
+ */
+public record DocumentList(List<String> paths, int omitted, String etag, String hash, long fetchedAt) {
+
+    /**
+     * Checks if the snapshot is older than the given time to live.
+     *
+     * @param now The current timestamp in milliseconds since epoch.
+     * @param ttl The time to live in milliseconds.
+     * @return true if the list should be refreshed, false otherwise.
+     */
+    public boolean isExpired(long now, long ttl) {
+        return now - fetchedAt >= ttl;
+    }
+
+    /**
+     * Creates a copy of this snapshot confirmed by the backend at the given time.
+     *
+     * @param now The current timestamp in milliseconds since epoch.
+     * @return the confirmed snapshot
+     */
+    public DocumentList confirmedAt(long now) {
+        return new DocumentList(paths, omitted, etag, hash, now);
+    }
+}
@@ -0,0 +1,143 @@
+package org.itsmanu.battistaAiSpigot.dto;
+
+import org.itsmanu.battistaAiSpigot.dto.enums.TimeWindow;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Generic cell rate algorithm limiter covering the minute, hour and day windows.
+ * <p>
+ * Each window only keeps the theoretical arrival time of the next request: every accepted request
+ * pushes it forward by the emission interval (window length / limit), and a request is rejected when
+ * that would move it further than the window length ahead of now. The state is updated with CAS only.
+ * <p>
+ * The sustained rate is the limit per window, and a rested limiter accepts a burst of up to the limit at once.
+ * After a burst, requests are accepted one per emission interval, so any span of one window length holds at
+ * most 2 * limit - 1 requests, reached only by a full burst after a whole idle window followed by steady use.
+ */
+public class GcraLimiter {
+
+    private static final int MINUTE = TimeWindow.MINUTE.ordinal();
+    private static final int HOUR = TimeWindow.HOUR.ordinal();
+    private static final int DAY = TimeWindow.DAY.ordinal();
+
+    private static final long MINUTE_MILLIS = TimeWindow.MINUTE.getMillis();
+    private static final long HOUR_MILLIS = TimeWindow.HOUR.getMillis();
+    private static final long DAY_MILLIS = TimeWindow.DAY.getMillis();
+
+    // returned by nextArrival when a request exceeds the limit
+    public static final long REJECTED = Long.MIN_VALUE;
+
+    // theoretical arrival time of the next request for each window, in milliseconds since epoch
+    private final AtomicLongArray theoreticalArrivals = new AtomicLongArray(TimeWindow.values().length);
+
+    /**
+     * Checks the limits of all the windows and consumes one request from each of them if none is exceeded.
+     *
+     * @param now       The current timestamp in milliseconds since epoch
+     * @param perMinute The maximum number of requests allowed per minute
+     * @param perHour   The maximum number of requests allowed per hour
+     * @param perDay    The maximum number of requests allowed per day
+     * @return true if the request was accepted, false if any of the limits was exceeded
+     */
+    public boolean tryAcquire(long now, int perMinute, int perHour, int perDay) {
+        if (!tryAcquire(MINUTE, MINUTE_MILLIS, now, perMinute)) {
+            return false;
+        }
+        if (!tryAcquire(HOUR, HOUR_MILLIS, now, perHour)) {
+            release(MINUTE, MINUTE_MILLIS, perMinute);
+            return false;
+        }
+        if (!tryAcquire(DAY, DAY_MILLIS, now, perDay)) {
+            release(MINUTE, MINUTE_MILLIS, perMinute);
+            release(HOUR, HOUR_MILLIS, perHour);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the limiter holds no state anymore, meaning it would behave exactly like a new limiter.
+     *
+     * @param now The current timestamp in milliseconds since epoch
+     * @return true if every window is fully replenished, false otherwise
+     */
+    public boolean isIdle(long now) {
+        for (int i = 0; i < theoreticalArrivals.length(); i++) {
+            if (theoreticalArrivals.get(i) > now) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the theoretical arrival time of the next request in a window, to save the limiter state.
+     *
+     * @param window The time window
+     * @return the theoretical arrival time, in milliseconds since epoch
+     */
+    public long getTheoreticalArrival(TimeWindow window) {
+        return theoreticalArrivals.get(window.ordinal());
+    }
+
+    /**
+     * Restores the theoretical arrival time of a window, from a saved limiter state.
+     *
+     * @param window             The time window
+     * @param theoreticalArrival The saved theoretical arrival time, in milliseconds since epoch
+     */
+    public void restore(TimeWindow window, long theoreticalArrival) {
+        theoreticalArrivals.set(window.ordinal(), theoreticalArrival);
+    }
+
+    private boolean tryAcquire(int window, long windowMillis, long now, int limit) {
+        while (true) {
+            long arrival = theoreticalArrivals.get(window);
+            long next = nextArrival(arrival, now, windowMillis, limit);
+            if (next == REJECTED) {
+                return false;
+            }
+            if (theoreticalArrivals.compareAndSet(window, arrival, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Computes the theoretical arrival time after accepting a request in a window.
+     * The burst tolerance is the whole window, see the class documentation for the resulting bound.
+     *
+     * @param arrival      The current theoretical arrival time, in milliseconds since epoch
+     * @param now          The current timestamp in milliseconds since epoch
+     * @param windowMillis The length of the window
+     * @param limit        The maximum number of requests allowed in the window
+     * @return the new theoretical arrival time, or {@link #REJECTED} if the request exceeds the limit
+     */
+    public static long nextArrival(long arrival, long now, long windowMillis, int limit) {
+        if (limit <= 0) {
+            return REJECTED;
+        }
+        long emissionInterval = emissionInterval(windowMillis, limit);
+        long next = Math.max(arrival, now) + emissionInterval;
+        return next - now > emissionInterval * limit ? REJECTED : next;
+    }
+
+    /**
+     * Gives back a request consumed from a window, used when a later window rejects the request.
+     */
+    private void release(int window, long windowMillis, int limit) {
+        theoreticalArrivals.getAndAdd(window, -emissionInterval(windowMillis, limit));
+    }
+
+    /**
+     * Computes the time each request pushes the theoretical arrival time of a window forward.
+     *
+     * @param windowMillis The length of the window
+     * @param limit        The maximum number of requests allowed in the window
+     * @return the emission interval in milliseconds, at least 1
+     */
+    public static long emissionInterval(long windowMillis, int limit) {
+        return Math.max(1, windowMillis / Math.max(1, limit));
+    }
+}
@@ -5,14 +5,14 @@ import org.itsmanu.battistaAiSpigot.BattistaAiSpigot;
 public class GlobalLimits extends Limit {
 
     public int getRequestPerMinute() {
-        return BattistaAiSpigot.getConfigs().getInt("limits.ai_requests_global.requests_per_minute", 30);
+        return BattistaAiSpigot.getSettings().limits().global().requestsPerMinute();
     }
 
     public int getRequestPerHour() {
-        return BattistaAiSpigot.getConfigs().getInt("limits.ai_requests_global.requests_per_hour", 600);
+        return BattistaAiSpigot.getSettings().limits().global().requestsPerHour();
     }
 
     public int getRequestPerDay() {
-        return BattistaAiSpigot.getConfigs().getInt("limits.ai_requests_global.requests_per_day", 1200);
+        return BattistaAiSpigot.getSettings().limits().global().requestsPerDay();
     }
 }
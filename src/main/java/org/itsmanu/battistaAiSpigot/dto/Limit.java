@@ -1,9 +1,7 @@
 package org.itsmanu.battistaAiSpigot.dto;
 
 public abstract class Limit {
-    public final SlidingWindow minuteWindow = new SlidingWindow(60_000);
-    public final SlidingWindow hourWindow = new SlidingWindow(3_600_000);
-    public final SlidingWindow dayWindow = new SlidingWindow(86_400_000);
+    protected final GcraLimiter limiter = new GcraLimiter();
 
     /**
      * Gets the maximum number of requests allowed per minute.
@@ -27,22 +25,17 @@ public abstract class Limit {
     public abstract int getRequestPerDay();
 
     /**
-     * Checks if the rate limit has been exceeded for any of the time windows.
+     * Checks if the rate limit has been exceeded for any of the time windows,
+     * and records the request if it has not.
      *
      * @param now The current timestamp in milliseconds since epoch
      * @return true if the rate limit has been exceeded for any window, false otherwise
      */
     public boolean isRateLimitExceeded(long now) {
-        if (minuteWindow.isRateLimitExceeded(now, getRequestPerMinute()) ||
-                hourWindow.isRateLimitExceeded(now, getRequestPerHour()) ||
-                dayWindow.isRateLimitExceeded(now, getRequestPerDay())) {
-            return true;
-        }
+        return !limiter.tryAcquire(now, getRequestPerMinute(), getRequestPerHour(), getRequestPerDay());
+    }
 
-        // Record the request
-        minuteWindow.record(now);
-        hourWindow.record(now);
-        dayWindow.record(now);
-        return false;
+    public GcraLimiter getLimiter() {
+        return limiter;
     }
 }
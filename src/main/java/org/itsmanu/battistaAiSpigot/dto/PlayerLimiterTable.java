@@ -0,0 +1,271 @@
+package org.itsmanu.battistaAiSpigot.dto;
+
+import org.itsmanu.battistaAiSpigot.dto.enums.TimeWindow;
+
+import java.util.BitSet;
+
+/**
+ * Rate limit state of every player, packed in a single primitive array.
+ * <p>
+ * Each slot holds the two halves of the player UUID and the theoretical arrival time of the minute, hour and day
+ * windows (see {@link GcraLimiter}), 40 bytes per slot with no object per player. Slots are found by open
+ * addressing with linear probing, and removals shift the following slots back, so the table never fills up with
+ * deleted entries. The table is kept between 20% and 80% full, 100k players fit in 5MB.
+ * <p>
+ * Each player is also scheduled on a {@link TimingWheel} at the time their windows are replenished, so expired
+ * players are found without scanning the table. A player used again meanwhile is scheduled again when their old
+ * deadline comes due, instead of on every request.
+ * <p>
+ * Operations are short and guarded by the table monitor.
+ */
+public class PlayerLimiterTable {
+
+    // longs in a slot: UUID halves, then the windows
+    public static final int SLOT_LONGS = 5;
+    private static final int MOST_BITS = 0;
+    private static final int LEAST_BITS = 1;
+    private static final int MINUTE = 2;
+    private static final int HOUR = 3;
+    private static final int DAY = 4;
+
+    private static final int MIN_CAPACITY = 1024;
+    private static final double MAX_LOAD = 0.8;
+    private static final double MIN_LOAD = 0.2;
+    // one minute ticks, the wheel covers a little more than a day
+    private static final int WHEEL_TICKS = 2048;
+    private static final long WHEEL_TICK_MILLIS = 60_000;
+
+    private static final long MINUTE_MILLIS = TimeWindow.MINUTE.getMillis();
+    private static final long HOUR_MILLIS = TimeWindow.HOUR.getMillis();
+    private static final long DAY_MILLIS = TimeWindow.DAY.getMillis();
+
+    private long[] slots;
+    private BitSet occupied;
+    private int capacity;
+    private int size = 0;
+    private final TimingWheel expirations = new TimingWheel(WHEEL_TICKS, WHEEL_TICK_MILLIS, System.currentTimeMillis());
+
+    public PlayerLimiterTable() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Checks the limits of a player and consumes one request from each window if none is exceeded.
+     *
+     * @param mostSignificantBits  The most significant bits of the player UUID
+     * @param leastSignificantBits The least significant bits of the player UUID
+     * @param now                  The current timestamp in milliseconds since epoch
+     * @param perMinute            The maximum number of requests allowed per minute
+     * @param perHour              The maximum number of requests allowed per hour
+     * @param perDay               The maximum number of requests allowed per day
+     * @return true if the request was accepted, false if any of the limits was exceeded
+     */
+    public synchronized boolean tryAcquire(long mostSignificantBits, long leastSignificantBits, long now,
+                                           int perMinute, int perHour, int perDay) {
+        int slot = find(mostSignificantBits, leastSignificantBits);
+        int base = slot * SLOT_LONGS;
+        // a missing player behaves like a player with fully replenished windows
+        boolean found = occupied.get(slot);
+        long minute = GcraLimiter.nextArrival(found ? slots[base + MINUTE] : 0, now, MINUTE_MILLIS, perMinute);
+        long hour = GcraLimiter.nextArrival(found ? slots[base + HOUR] : 0, now, HOUR_MILLIS, perHour);
+        long day = GcraLimiter.nextArrival(found ? slots[base + DAY] : 0, now, DAY_MILLIS, perDay);
+        if (minute == GcraLimiter.REJECTED || hour == GcraLimiter.REJECTED || day == GcraLimiter.REJECTED) {
+            return false;
+        }
+        if (!found) {
+            slot = insert(slot, mostSignificantBits, leastSignificantBits);
+            base = slot * SLOT_LONGS;
+        }
+        slots[base + MINUTE] = minute;
+        slots[base + HOUR] = hour;
+        slots[base + DAY] = day;
+        if (!found) {
+            expirations.schedule(mostSignificantBits, leastSignificantBits, getExpiration(slot));
+        }
+        return true;
+    }
+
+    /**
+     * Restores the state of a player from a saved snapshot.
+     */
+    public synchronized void restore(long mostSignificantBits, long leastSignificantBits, long minute, long hour, long day) {
+        int slot = find(mostSignificantBits, leastSignificantBits);
+        boolean found = occupied.get(slot);
+        if (!found) {
+            slot = insert(slot, mostSignificantBits, leastSignificantBits);
+        }
+        int base = slot * SLOT_LONGS;
+        slots[base + MINUTE] = minute;
+        slots[base + HOUR] = hour;
+        slots[base + DAY] = day;
+        if (!found) {
+            expirations.schedule(mostSignificantBits, leastSignificantBits, getExpiration(slot));
+        }
+    }
+
+    /**
+     * Removes the players whose windows are fully replenished, they would behave exactly like new players.
+     * Only the players due on the expiration wheel since the last call are checked.
+     *
+     * @param now The current timestamp in milliseconds since epoch
+     * @return the number of removed players
+     */
+    public synchronized int removeExpired(long now) {
+        int[] removed = {0};
+        expirations.advance(now, (mostSignificantBits, leastSignificantBits) -> {
+            int slot = find(mostSignificantBits, leastSignificantBits);
+            if (!occupied.get(slot)) {
+                return;
+            }
+            if (isExpired(slot, now)) {
+                removeAt(slot);
+                removed[0]++;
+            } else {
+                // used since it was scheduled
+                expirations.schedule(mostSignificantBits, leastSignificantBits, getExpiration(slot));
+            }
+        });
+        shrinkIfSparse();
+        return removed[0];
+    }
+
+    /**
+     * Copies the state of every player, to save it without holding the table.
+     *
+     * @return {@link #SLOT_LONGS} longs per player: UUID halves, then minute, hour and day arrival times
+     */
+    public synchronized long[] export() {
+        long[] entries = new long[size * SLOT_LONGS];
+        int next = 0;
+        for (int slot = occupied.nextSetBit(0); slot >= 0; slot = occupied.nextSetBit(slot + 1)) {
+            System.arraycopy(slots, slot * SLOT_LONGS, entries, next, SLOT_LONGS);
+            next += SLOT_LONGS;
+        }
+        return entries;
+    }
+
+    public synchronized void clear() {
+        allocate(MIN_CAPACITY);
+        expirations.clear();
+        size = 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Gets the memory used by the table.
+     *
+     * @return the size of the table and expiration wheel arrays, in bytes
+     */
+    public synchronized long getMemoryBytes() {
+        return (long) slots.length * Long.BYTES + capacity / 8 + expirations.getMemoryBytes();
+    }
+
+    private boolean isExpired(int slot, long now) {
+        return getExpiration(slot) <= now;
+    }
+
+    /**
+     * Gets the time all the windows of a slot are replenished.
+     */
+    private long getExpiration(int slot) {
+        int base = slot * SLOT_LONGS;
+        return Math.max(slots[base + MINUTE], Math.max(slots[base + HOUR], slots[base + DAY]));
+    }
+
+    /**
+     * Finds the slot of a player, or the empty slot where the player would be inserted.
+     */
+    private int find(long mostSignificantBits, long leastSignificantBits) {
+        int mask = capacity - 1;
+        int slot = hash(mostSignificantBits, leastSignificantBits) & mask;
+        while (occupied.get(slot)) {
+            int base = slot * SLOT_LONGS;
+            if (slots[base + MOST_BITS] == mostSignificantBits && slots[base + LEAST_BITS] == leastSignificantBits) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Inserts a player in an empty slot found by {@link #find}, growing the table if needed.
+     *
+     * @return the slot of the player, which differs from the given one if the table grew
+     */
+    private int insert(int slot, long mostSignificantBits, long leastSignificantBits) {
+        if (size + 1 > capacity * MAX_LOAD) {
+            resize(capacity * 2);
+            slot = find(mostSignificantBits, leastSignificantBits);
+        }
+        int base = slot * SLOT_LONGS;
+        slots[base + MOST_BITS] = mostSignificantBits;
+        slots[base + LEAST_BITS] = leastSignificantBits;
+        occupied.set(slot);
+        size++;
+        return slot;
+    }
+
+    /**
+     * Empties a slot, and shifts back the following slots of the same probe sequence so lookups still find them.
+     */
+    private void removeAt(int slot) {
+        int mask = capacity - 1;
+        int empty = slot;
+        int next = (slot + 1) & mask;
+        while (occupied.get(next)) {
+            int base = next * SLOT_LONGS;
+            int home = hash(slots[base + MOST_BITS], slots[base + LEAST_BITS]) & mask;
+            // the entry can move to the empty slot only if that doesn't put it before its home slot
+            boolean movable = empty <= next ? (home <= empty || home > next) : (home <= empty && home > next);
+            if (movable) {
+                System.arraycopy(slots, base, slots, empty * SLOT_LONGS, SLOT_LONGS);
+                empty = next;
+            }
+            next = (next + 1) & mask;
+        }
+        occupied.clear(empty);
+        size--;
+    }
+
+    private void shrinkIfSparse() {
+        if (capacity > MIN_CAPACITY && size < capacity * MIN_LOAD) {
+            int newCapacity = capacity;
+            while (newCapacity > MIN_CAPACITY && size < newCapacity * MIN_LOAD) {
+                newCapacity /= 2;
+            }
+            resize(newCapacity);
+        }
+    }
+
+    private void resize(int newCapacity) {
+        long[] oldSlots = slots;
+        BitSet oldOccupied = occupied;
+        allocate(newCapacity);
+        for (int slot = oldOccupied.nextSetBit(0); slot >= 0; slot = oldOccupied.nextSetBit(slot + 1)) {
+            int oldBase = slot * SLOT_LONGS;
+            int newSlot = find(oldSlots[oldBase + MOST_BITS], oldSlots[oldBase + LEAST_BITS]);
+            System.arraycopy(oldSlots, oldBase, slots, newSlot * SLOT_LONGS, SLOT_LONGS);
+            occupied.set(newSlot);
+        }
+    }
+
+    private void allocate(int newCapacity) {
+        capacity = newCapacity;
+        slots = new long[newCapacity * SLOT_LONGS];
+        occupied = new BitSet(newCapacity);
+    }
+
+    /**
+     * Mixes both UUID halves, random UUIDs are already uniform but offline mode UUIDs are name based.
+     */
+    private static int hash(long mostSignificantBits, long leastSignificantBits) {
+        long h = mostSignificantBits * 0x9E3779B97F4A7C15L ^ leastSignificantBits;
+        h ^= h >>> 32;
+        h *= 0xD6E8FEB86659FD93L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
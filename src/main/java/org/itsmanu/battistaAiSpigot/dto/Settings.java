@@ -0,0 +1,381 @@
+package org.itsmanu.battistaAiSpigot.dto;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.itsmanu.battistaAiSpigot.dto.enums.DebugCategory;
+import org.itsmanu.battistaAiSpigot.dto.enums.HttpProtocol;
+import org.itsmanu.battistaAiSpigot.dto.enums.LoadBalancingPolicy;
+import org.itsmanu.battistaAiSpigot.utils.MessageTemplates;
+import org.itsmanu.battistaAiSpigot.utils.QuestionMatcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable, typed snapshot of the plugin configuration.
+ * A new snapshot is built on enable and on every reload, so each request sees one consistent configuration.
+ * Configured messages are available both as raw text and as prebuilt components.
+ */
+public record Settings(boolean debug,
+                       Set<DebugCategory> debugCategories,
+                       Endpoint endpoint,
+                       SourceFilter sourceFilter,
+                       Cache cache,
+                       Tab tab,
+                       Chat chat,
+                       Limits limits,
+                       Queue queue,
+                       CircuitBreaker circuitBreaker,
+                       Hedging hedging,
+                       Documents documents,
+                       Metrics metrics,
+                       Map<String, String> messages,
+                       MessageTemplates templates) {
+
+    /**
+     * @param backends             The backends requests are balanced across, at least one.
+     * @param loadBalancing        How a backend is picked for each request.
+     * @param ejectAfterFailures   The number of consecutive failures after which a backend stops receiving requests.
+     * @param probeIntervalSeconds The time between health probes of an ejected backend.
+     * @param connections          How connections to the backends are handled.
+     * @param maxAnswerLength       The maximum length of an answer body, in characters.
+     * @param maxDocumentListLength The maximum length of the document list, the remaining documents are left out.
+     */
+    public record Endpoint(List<BackendAddress> backends, int timeout, boolean streaming, LoadBalancingPolicy loadBalancing,
+                           int ejectAfterFailures, int probeIntervalSeconds, Connections connections,
+                           int maxAnswerLength, int maxDocumentListLength) {
+    }
+
+    /**
+     * @param maxIdle          The maximum number of idle connections kept open.
+     * @param keepAliveSeconds The time an idle connection is kept open.
+     * @param maxPerHost       The maximum number of requests running at the same time on each backend host.
+     * @param prewarm          The number of connections opened to each backend on enable and on reload.
+     */
+    public record Connections(int maxIdle, long keepAliveSeconds, int maxPerHost, HttpProtocol protocol, int prewarm) {
+    }
+
+    public record BackendAddress(String answerUrl, String listUrl) {
+    }
+
+    /**
+     * @param folder The configured knowledge source folder, empty if no filter is applied.
+     * @param filter The filter expression sent to the backend, or null if no filter is applied.
+     */
+    public record SourceFilter(String folder, String filter) {
+    }
+
+    public record Cache(boolean enabled, int maxEntries, long maxBytes, long ttlMillis) {
+    }
+
+    /**
+     * @param ttlMillis         The time the document list is served from memory before being requested again.
+     * @param backgroundRefresh Whether the document list is refreshed in the background.
+     * @param pageSize          The number of documents on each page of /battista documents.
+     */
+    public record Documents(long ttlMillis, boolean backgroundRefresh, int pageSize) {
+    }
+
+    /**
+     * @param prometheusEnabled     Whether the metrics are written to a Prometheus text file.
+     * @param prometheusFile        The file the metrics are written to, relative to the plugin data folder.
+     * @param exportIntervalSeconds The time between two writes of the metrics file.
+     */
+    public record Metrics(boolean prometheusEnabled, String prometheusFile, int exportIntervalSeconds) {
+    }
+
+    public record Tab(boolean enabled, String name, String skin) {
+    }
+
+    /**
+     * @param tags            The tag and its aliases questions can be detected with.
+     * @param questionMatcher The matcher built from the tags.
+     */
+    public record Chat(boolean taggingEnabled, List<String> tags, boolean autoDetectQuestions,
+                       int minLength, int maxLength, String responsePrefix, QuestionMatcher questionMatcher) {
+    }
+
+    /**
+     * @param persist             Whether the rate limit state is saved to disk, so it survives restarts.
+     * @param saveIntervalSeconds The time between two saves of the rate limit state.
+     * @param shared              The limits shared with the other servers of a network.
+     */
+    public record Limits(int interactiveTimeout, int rejectionCooldown, RateLimits global, RateLimits player,
+                         boolean persist, int saveIntervalSeconds, SharedLimits shared) {
+    }
+
+    /**
+     * @param keyPrefix     The prefix of the Redis keys, the servers sharing the limits use the same one.
+     * @param globalBatch   The number of requests reserved at once from the global limits.
+     * @param playerBatch   The number of requests reserved at once from the limits of a player.
+     * @param timeoutMillis The time to wait for Redis before using the limits of this server.
+     */
+    public record SharedLimits(boolean enabled, String host, int port, String password, String keyPrefix,
+                               int globalBatch, int playerBatch, int timeoutMillis) {
+    }
+
+    public record RateLimits(int requestsPerMinute, int requestsPerHour, int requestsPerDay) {
+    }
+
+    public record Queue(int maxConcurrentRequests, int maxQueuedRequests) {
+    }
+
+    /**
+     * @param delayMillis  The time after which a duplicate request is sent, 0 to use the 95th percentile of recent answers.
+     * @param maxExtraLoad The maximum share of duplicate requests, in percent of the requests.
+     */
+    public record Hedging(boolean enabled, long delayMillis, int maxExtraLoad) {
+    }
+
+    /**
+     * @param windowSize            The number of most recent requests the rates are computed on.
+     * @param minimumCalls          The number of requests needed before the rates are evaluated.
+     * @param failureRateThreshold  The failure rate that opens the circuit, in percent.
+     * @param slowCallMillis        The time after which a request is considered slow.
+     * @param slowCallRateThreshold The slow request rate that opens the circuit, in percent.
+     * @param probeIntervalSeconds  The time between health probes while the circuit is open.
+     * @param halfOpenRequests      The number of trial requests that must succeed to close the circuit.
+     */
+    public record CircuitBreaker(boolean enabled, int windowSize, int minimumCalls, int failureRateThreshold,
+                                 long slowCallMillis, int slowCallRateThreshold, int probeIntervalSeconds,
+                                 int halfOpenRequests) {
+    }
+
+    /**
+     * Retrieves a message from the snapshot.
+     *
+     * @param path The full path of the message in the configuration (e.g. messages.processing).
+     * @param def  The default message to use if the path is not found.
+     * @return The configured message, or the default one.
+     */
+    public String getMessage(String path, String def) {
+        return messages.getOrDefault(path, def);
+    }
+
+    /**
+     * Builds a settings snapshot from the plugin configuration.
+     *
+     * @param config The plugin configuration.
+     * @return The settings snapshot.
+     */
+    public static Settings load(FileConfiguration config) {
+        var endpoint = new Endpoint(
+                loadBackends(config),
+                config.getInt("endpoint.timeout", 30),
+                config.getBoolean("endpoint.streaming", false),
+                loadLoadBalancingPolicy(config),
+                Math.max(1, config.getInt("endpoint.eject_after_failures", 3)),
+                config.getInt("endpoint.probe_interval", 10),
+                new Connections(
+                        Math.max(0, config.getInt("endpoint.connections.max_idle", 8)),
+                        Math.max(1, config.getLong("endpoint.connections.keep_alive", 300)),
+                        Math.max(1, config.getInt("endpoint.connections.max_per_host", 16)),
+                        loadHttpProtocol(config),
+                        Math.max(0, config.getInt("endpoint.connections.prewarm", 2))
+                ),
+                Math.max(1, config.getInt("endpoint.max_answer_length", 65536)),
+                Math.max(1, config.getInt("endpoint.max_document_list_length", 16384))
+        );
+
+        var cache = new Cache(
+                config.getBoolean("cache.enabled", true),
+                config.getInt("cache.max_entries", 500),
+                config.getLong("cache.max_size_kb", 2048) * 1024L,
+                config.getLong("cache.ttl", 600) * 1000L
+        );
+
+        var tab = new Tab(
+                config.getBoolean("tab.enabled", false),
+                config.getString("tab.name", "Battista AI"),
+                config.getString("tab.skin", "ItsManuX")
+        );
+
+        List<String> tags = new ArrayList<>();
+        tags.add(config.getString("chat.tagging.tag", config.getString("chat.tag", "@Helper")));
+        tags.addAll(config.getStringList("chat.tagging.aliases"));
+
+        var chat = new Chat(
+                config.getBoolean("chat.tagging.enabled", true),
+                List.copyOf(tags),
+                config.getBoolean("chat.auto_detect_questions.enabled", false),
+                config.getInt("chat.auto_detect_questions.min_length", 5),
+                config.getInt("chat.auto_detect_questions.max_length", 150),
+                config.getString("chat.response_prefix", ""),
+                new QuestionMatcher(tags)
+        );
+
+        var limits = new Limits(
+                config.getInt("limits.inteactive_timeout", 60),
+                config.getInt("limits.rejection_cooldown", 10),
+                new RateLimits(
+                        config.getInt("limits.ai_requests_global.requests_per_minute", 30),
+                        config.getInt("limits.ai_requests_global.requests_per_hour", 600),
+                        config.getInt("limits.ai_requests_global.requests_per_day", 1200)
+                ),
+                new RateLimits(
+                        config.getInt("limits.ai_requests_player.requests_per_minute", 3),
+                        config.getInt("limits.ai_requests_player.requests_per_hour", 60),
+                        config.getInt("limits.ai_requests_player.requests_per_day", 120)
+                ),
+                config.getBoolean("limits.persistence.enabled", true),
+                Math.max(1, config.getInt("limits.persistence.save_interval", 60)),
+                new SharedLimits(
+                        config.getBoolean("limits.shared.enabled", false),
+                        config.getString("limits.shared.host", "localhost"),
+                        config.getInt("limits.shared.port", 6379),
+                        config.getString("limits.shared.password", ""),
+                        config.getString("limits.shared.key_prefix", "battista"),
+                        Math.max(1, config.getInt("limits.shared.global_batch", 10)),
+                        Math.max(1, config.getInt("limits.shared.player_batch", 1)),
+                        Math.max(1, config.getInt("limits.shared.timeout", 500))
+                )
+        );
+
+        var queue = new Queue(
+                Math.max(1, config.getInt("queue.max_concurrent_requests", 4)),
+                Math.max(0, config.getInt("queue.max_queued_requests", 20))
+        );
+
+        int windowSize = Math.max(1, config.getInt("circuit_breaker.window_size", 20));
+        var circuitBreaker = new CircuitBreaker(
+                config.getBoolean("circuit_breaker.enabled", true),
+                windowSize,
+                Math.min(windowSize, Math.max(1, config.getInt("circuit_breaker.minimum_requests", 10))),
+                config.getInt("circuit_breaker.failure_rate_threshold", 50),
+                config.getLong("circuit_breaker.slow_request_time", 20) * 1000L,
+                config.getInt("circuit_breaker.slow_request_rate_threshold", 80),
+                config.getInt("circuit_breaker.probe_interval", 10),
+                Math.max(1, config.getInt("circuit_breaker.half_open_requests", 3))
+        );
+
+        var hedging = new Hedging(
+                config.getBoolean("hedging.enabled", false),
+                Math.max(0, config.getLong("hedging.delay", 0)),
+                Math.max(0, Math.min(100, config.getInt("hedging.max_extra_load", 10)))
+        );
+
+        var documents = new Documents(
+                Math.max(1, config.getLong("documents.cache_ttl", 300)) * 1000L,
+                config.getBoolean("documents.background_refresh", true),
+                Math.max(1, config.getInt("documents.page_size", 10))
+        );
+
+        var metrics = new Metrics(
+                config.getBoolean("metrics.prometheus.enabled", false),
+                config.getString("metrics.prometheus.file", "metrics.prom"),
+                Math.max(1, config.getInt("metrics.prometheus.interval", 15))
+        );
+
+        boolean debug = config.getBoolean("debug", false);
+        Map<String, String> messages = loadMessages(config);
+
+        return new Settings(
+                debug,
+                debug ? loadDebugCategories(config) : Set.of(),
+                endpoint,
+                loadSourceFilter(config),
+                cache,
+                tab,
+                chat,
+                limits,
+                queue,
+                circuitBreaker,
+                hedging,
+                documents,
+                metrics,
+                messages,
+                new MessageTemplates(chat.responsePrefix(), messages)
+        );
+    }
+
+    /**
+     * Loads the backends, answer-url and list-url are either a single URL or lists of URLs paired by position.
+     */
+    private static List<BackendAddress> loadBackends(FileConfiguration config) {
+        List<String> answerUrls = getStringOrList(config, "endpoint.answer-url", "http://localhost:8000/v2/answer");
+        List<String> listUrls = getStringOrList(config, "endpoint.list-url", "http://localhost:8000/v2/list_documents");
+
+        List<BackendAddress> backends = new ArrayList<>();
+        for (int i = 0; i < answerUrls.size(); i++) {
+            // a backend without its own list URL shares the last configured one
+            String listUrl = listUrls.get(Math.min(i, listUrls.size() - 1));
+            backends.add(new BackendAddress(answerUrls.get(i), listUrl));
+        }
+        return List.copyOf(backends);
+    }
+
+    private static List<String> getStringOrList(FileConfiguration config, String path, String def) {
+        if (config.isList(path)) {
+            List<String> values = config.getStringList(path);
+            if (!values.isEmpty()) {
+                return values;
+            }
+        }
+        return List.of(config.getString(path, def));
+    }
+
+    private static LoadBalancingPolicy loadLoadBalancingPolicy(FileConfiguration config) {
+        String policy = config.getString("endpoint.load_balancing", "least_outstanding");
+        try {
+            return LoadBalancingPolicy.valueOf(policy.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return LoadBalancingPolicy.LEAST_OUTSTANDING;
+        }
+    }
+
+    private static HttpProtocol loadHttpProtocol(FileConfiguration config) {
+        String protocol = config.getString("endpoint.connections.protocol", "http2");
+        try {
+            return HttpProtocol.valueOf(protocol.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return HttpProtocol.HTTP2;
+        }
+    }
+
+    private static Set<DebugCategory> loadDebugCategories(FileConfiguration config) {
+        if (!config.isList("debug_categories")) {
+            return Collections.unmodifiableSet(EnumSet.allOf(DebugCategory.class));
+        }
+
+        Set<DebugCategory> categories = EnumSet.noneOf(DebugCategory.class);
+        for (String category : config.getStringList("debug_categories")) {
+            try {
+                categories.add(DebugCategory.valueOf(category.trim().toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                // unknown categories are ignored, like any other invalid setting
+            }
+        }
+        return Collections.unmodifiableSet(categories);
+    }
+
+    private static SourceFilter loadSourceFilter(FileConfiguration config) {
+        String folder = config.getString("source-filter.folder", "");
+        if (folder.isEmpty()) {
+            return new SourceFilter(folder, null);
+        }
+
+        // add trailing slash if missing
+        String filterFolder = folder.endsWith("/") ? folder : folder + "/";
+        return new SourceFilter(folder, String.format("contains(path, `%s`)", filterFolder));
+    }
+
+    private static Map<String, String> loadMessages(FileConfiguration config) {
+        Map<String, String> messages = new HashMap<>();
+        ConfigurationSection section = config.getConfigurationSection("messages");
+        if (section != null) {
+            for (String key : section.getKeys(false)) {
+                String message = section.getString(key);
+                if (message != null) {
+                    messages.put("messages." + key, message);
+                }
+            }
+        }
+        return Map.copyOf(messages);
+    }
+}
@@ -0,0 +1,133 @@
+package org.itsmanu.battistaAiSpigot.dto;
+
+/**
+ * Timing wheel of keys made of two longs, such as player UUIDs, each scheduled at a deadline.
+ * <p>
+ * Time is split in ticks, and each tick owns the bucket of keys due in it. Advancing the wheel only visits the
+ * buckets of the ticks that passed, so each key costs O(1) whatever the number of scheduled keys. Deadlines beyond
+ * the wheel horizon are scheduled at the horizon, the owner of the key schedules it again when it comes due.
+ * <p>
+ * Not thread safe, the owner guards it.
+ */
+public class TimingWheel {
+
+    private static final int INITIAL_BUCKET_LONGS = 8;
+
+    private final long tickMillis;
+    private final int mask;
+    // two longs for each key, null when the bucket is empty
+    private final long[][] buckets;
+    private final int[] bucketLongs;
+    // last tick that was advanced over
+    private long cursor;
+    private int size = 0;
+
+    /**
+     * A key that came due.
+     */
+    @FunctionalInterface
+    public interface DueKey {
+        void accept(long first, long second);
+    }
+
+    /**
+     * @param ticks      The number of buckets, rounded up to a power of two. Ticks times tick length is the horizon.
+     * @param tickMillis The length of a tick in milliseconds.
+     * @param now        The current timestamp in milliseconds since epoch.
+     */
+    public TimingWheel(int ticks, long tickMillis, long now) {
+        int capacity = Integer.highestOneBit(Math.max(ticks - 1, 1)) << 1;
+        this.tickMillis = tickMillis;
+        this.mask = capacity - 1;
+        this.buckets = new long[capacity][];
+        this.bucketLongs = new int[capacity];
+        this.cursor = now / tickMillis;
+    }
+
+    /**
+     * Schedules a key, it comes due in the first tick starting at or after the deadline.
+     *
+     * @param first    The first half of the key.
+     * @param second   The second half of the key.
+     * @param deadline The timestamp the key is due at, in milliseconds since epoch.
+     */
+    public void schedule(long first, long second, long deadline) {
+        long tick = Math.floorDiv(deadline + tickMillis - 1, tickMillis);
+        tick = Math.min(Math.max(tick, cursor + 1), cursor + mask + 1);
+        int index = (int) (tick & mask);
+
+        long[] bucket = buckets[index];
+        int used = bucketLongs[index];
+        if (bucket == null) {
+            bucket = buckets[index] = new long[INITIAL_BUCKET_LONGS];
+        } else if (used == bucket.length) {
+            long[] grown = new long[bucket.length * 2];
+            System.arraycopy(bucket, 0, grown, 0, used);
+            bucket = buckets[index] = grown;
+        }
+        bucket[used] = first;
+        bucket[used + 1] = second;
+        bucketLongs[index] = used + 2;
+        size++;
+    }
+
+    /**
+     * Advances the wheel to the current time, handing out the keys of every tick that passed.
+     * Keys handed out are no longer scheduled, the action may schedule them again.
+     *
+     * @param now    The current timestamp in milliseconds since epoch.
+     * @param action The action to run on each key that came due.
+     */
+    public void advance(long now, DueKey action) {
+        long target = now / tickMillis;
+        // after a long pause every bucket is due, visit each of them once
+        long tick = Math.max(cursor + 1, target - mask);
+        for (; tick <= target; tick++) {
+            cursor = tick;
+            int index = (int) (tick & mask);
+            long[] bucket = buckets[index];
+            if (bucket == null) {
+                continue;
+            }
+            int used = bucketLongs[index];
+            // detached first, keys scheduled again during the action go to a new bucket
+            buckets[index] = null;
+            bucketLongs[index] = 0;
+            size -= used / 2;
+            for (int i = 0; i < used; i += 2) {
+                action.accept(bucket[i], bucket[i + 1]);
+            }
+        }
+        cursor = Math.max(cursor, target);
+    }
+
+    /**
+     * Removes every scheduled key.
+     */
+    public void clear() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = null;
+            bucketLongs[i] = 0;
+        }
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the memory used by the wheel.
+     *
+     * @return the size of the wheel arrays, in bytes
+     */
+    public long getMemoryBytes() {
+        long bytes = (long) buckets.length * (Long.BYTES + Integer.BYTES);
+        for (long[] bucket : buckets) {
+            if (bucket != null) {
+                bytes += (long) bucket.length * Long.BYTES;
+            }
+        }
+        return bytes;
+    }
+}
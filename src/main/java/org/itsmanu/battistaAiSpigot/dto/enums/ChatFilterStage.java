@@ -0,0 +1,22 @@
+package org.itsmanu.battistaAiSpigot.dto.enums;
+
+/**
+ * Stages of the chat filter, in the order they are checked. Cheap checks come first,
+ * so most chat messages are dropped before being serialized.
+ */
+public enum ChatFilterStage {
+    // both tagging and automatic detection are disabled, and the player is not in interactive mode
+    DETECTION_DISABLED,
+    // the player lacks the battista.use permission
+    NO_PERMISSION,
+    // the player was rate limited a moment ago
+    RECENTLY_REJECTED,
+    // the message is longer than any valid question could be
+    TOO_LONG,
+    // the message is empty, or has no tag or question mark
+    NOT_A_QUESTION,
+    // the question is too short or too long
+    INVALID_QUESTION,
+    // the player or global rate limit was exceeded
+    RATE_LIMITED
+}
@@ -0,0 +1,13 @@
+package org.itsmanu.battistaAiSpigot.dto.enums;
+
+/**
+ * States of the circuit breaker in front of the AI backend.
+ */
+public enum CircuitState {
+    // requests reach the backend, and their outcome is recorded
+    CLOSED,
+    // the backend is failing, requests fail fast until a health probe succeeds
+    OPEN,
+    // a health probe succeeded, a few trial requests decide whether to close the circuit again
+    HALF_OPEN
+}
@@ -0,0 +1,8 @@
+package org.itsmanu.battistaAiSpigot.dto.enums;
+
+public enum DebugCategory {
+    CHAT,
+    HTTP,
+    LIMITS,
+    TAB
+}
@@ -0,0 +1,13 @@
+package org.itsmanu.battistaAiSpigot.dto.enums;
+
+/**
+ * HTTP protocol used to talk to the backends.
+ */
+public enum HttpProtocol {
+    // HTTP/1.1 only, one request at a time on each connection
+    HTTP1,
+    // HTTP/2 when negotiated over TLS, HTTP/1.1 otherwise
+    HTTP2,
+    // HTTP/2 without TLS, the backend must support it, all the requests share a single connection
+    H2C
+}
@@ -0,0 +1,11 @@
+package org.itsmanu.battistaAiSpigot.dto.enums;
+
+/**
+ * How a backend is picked for each request, when more than one is configured.
+ */
+public enum LoadBalancingPolicy {
+    // the backend with the fewest requests in progress
+    LEAST_OUTSTANDING,
+    // the backend with the lowest recent latency, weighted by its requests in progress
+    EWMA
+}
@@ -0,0 +1,19 @@
+package org.itsmanu.battistaAiSpigot.dto.enums;
+
+/**
+ * Counters of the metrics registry.
+ */
+public enum MetricCounter {
+    // answer requests that got a successful response
+    REQUESTS_SUCCEEDED,
+    // answer requests that failed with a connection error or an error response
+    REQUESTS_FAILED,
+    // answer requests that got no response before the timeout
+    REQUESTS_TIMED_OUT,
+    // questions rejected by the global rate limit
+    GLOBAL_RATE_LIMITED,
+    // questions rejected by the player rate limit
+    PLAYER_RATE_LIMITED,
+    // players dropped from the rate limits after their windows were replenished
+    PLAYER_LIMITS_EXPIRED
+}
@@ -0,0 +1,39 @@
+package org.itsmanu.battistaAiSpigot.dto.enums;
+
+/**
+ * Histograms of the metrics registry.
+ */
+public enum MetricHistogram {
+    // time the backend took to answer, over every backend
+    REQUEST_LATENCY("battista_request_latency_milliseconds", "ms"),
+    // time a request waited in the request queue before being sent
+    QUEUE_WAIT("battista_queue_wait_milliseconds", "ms"),
+    // time taken to render an answer into a chat component
+    RENDER_TIME("battista_render_time_microseconds", "µs");
+
+    private final String metricName;
+    private final String unit;
+
+    MetricHistogram(String metricName, String unit) {
+        this.metricName = metricName;
+        this.unit = unit;
+    }
+
+    /**
+     * Gets the name of the histogram in the Prometheus export.
+     *
+     * @return the Prometheus metric name
+     */
+    public String getMetricName() {
+        return metricName;
+    }
+
+    /**
+     * Gets the unit of the recorded values, as shown in the statistics.
+     *
+     * @return the unit symbol
+     */
+    public String getUnit() {
+        return unit;
+    }
+}
@@ -0,0 +1,12 @@
+package org.itsmanu.battistaAiSpigot.dto.enums;
+
+/**
+ * Priority lanes of the request queue, from the most to the least important.
+ * When the queue is full, the least important questions are shed first.
+ */
+public enum RequestPriority {
+    // questions asked with /ask or in interactive mode
+    HIGH,
+    // questions detected in the public chat
+    LOW
+}
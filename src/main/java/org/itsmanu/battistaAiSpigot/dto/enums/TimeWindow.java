@@ -1,7 +1,22 @@
 package org.itsmanu.battistaAiSpigot.dto.enums;
 
 public enum TimeWindow {
-    MINUTE,
-    HOUR,
-    DAY
+    MINUTE(60_000),
+    HOUR(3_600_000),
+    DAY(86_400_000);
+
+    private final long millis;
+
+    TimeWindow(long millis) {
+        this.millis = millis;
+    }
+
+    /**
+     * Gets the length of the time window.
+     *
+     * @return the length of the time window in milliseconds
+     */
+    public long getMillis() {
+        return millis;
+    }
 }
@@ -1,77 +1,208 @@
 package org.itsmanu.battistaAiSpigot.listeners;
 
 import io.papermc.paper.event.player.AsyncChatEvent;
-import net.kyori.adventure.text.serializer.plain.PlainTextComponentSerializer;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.flattener.ComponentFlattener;
+import net.kyori.adventure.text.flattener.FlattenerListener;
 import org.bukkit.Bukkit;
-import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.itsmanu.battistaAiSpigot.BattistaAiSpigot;
 import org.itsmanu.battistaAiSpigot.dto.Question;
+import org.itsmanu.battistaAiSpigot.dto.Settings;
+import org.itsmanu.battistaAiSpigot.dto.enums.ChatFilterStage;
+import org.itsmanu.battistaAiSpigot.dto.enums.DebugCategory;
 import org.itsmanu.battistaAiSpigot.utils.ChatUtil;
-import org.itsmanu.battistaAiSpigot.utils.HttpUtil;
+import org.itsmanu.battistaAiSpigot.utils.DebugUtil;
+import org.itsmanu.battistaAiSpigot.utils.InteractiveSessionUtil;
 import org.itsmanu.battistaAiSpigot.utils.LimitsUtil;
+import org.itsmanu.battistaAiSpigot.utils.QuestionMatcher;
+import org.jetbrains.annotations.NotNull;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 
 public class ChatListener implements Listener {
 
     private final Logger logger = BattistaAiSpigot.getInstance().getLogger();
 
-    private final PlainTextComponentSerializer plainTextSerializer = PlainTextComponentSerializer.plainText();
+    private final ComponentFlattener flattener = ComponentFlattener.basic();
 
-    // Pattern to detect questions (ends with ? optionally followed by spaces)
-    private static final Pattern QUESTION_PATTERN = Pattern.compile(".*\\?\\s*$");
+    // chat filter counters, shared by all the async chat threads
+    private static final AtomicLong scannedMessages = new AtomicLong();
+    private static final AtomicLong detectedQuestions = new AtomicLong();
+    private static final AtomicLong answeredMessages = new AtomicLong();
+    private static final AtomicLongArray droppedMessages = new AtomicLongArray(ChatFilterStage.values().length);
 
     public ChatListener() {
     }
 
     /**
      * Handles the AsyncChatEvent to detect and process AI-related questions.
+     * Messages go through a staged filter, the cheapest checks come first and the message
+     * is only serialized once it could actually be a question.
      *
      * @param event The asynchronous chat event triggered by a player message.
      */
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onAsyncChat(AsyncChatEvent event) {
         Player player = event.getPlayer();
-        String message = plainTextSerializer.serialize(event.message()).trim();
+        Settings.Chat chatSettings = BattistaAiSpigot.getSettings().chat();
+        scannedMessages.incrementAndGet();
 
+        // only a hint, the session is claimed once the message turns out to be usable
+        boolean interactive = InteractiveSessionUtil.isOpen(player.getUniqueId());
+
+        if (!interactive && !chatSettings.taggingEnabled() && !chatSettings.autoDetectQuestions()) {
+            drop(ChatFilterStage.DETECTION_DISABLED);
+            return;
+        }
+
+        if (!player.hasPermission("battista.use")) {
+            DebugUtil.trace(DebugCategory.CHAT, () -> "Player " + player.getName() + " does not have permission for AI helper");
+            drop(ChatFilterStage.NO_PERMISSION);
+            return;
+        }
+
+        if (!interactive && LimitsUtil.isRecentlyRejected(player.getUniqueId())) {
+            drop(ChatFilterStage.RECENTLY_REJECTED);
+            return;
+        }
+
+        // a tagged message can't be longer than the longest tag plus a valid question, with some room for whitespace
+        int maxMessageLength = chatSettings.maxLength() * 2 + chatSettings.questionMatcher().getLongestTagLength();
+        String message = serialize(event.message(), maxMessageLength);
+
+        if (message == null) {
+            if (interactive && InteractiveSessionUtil.claim(player.getUniqueId())) {
+                // the player is waiting for an answer, let them know why there will be none
+                event.setCancelled(true);
+                player.sendMessage(ChatUtil.formatConfigMessage("messages.question_too_long", "Question too long."));
+            }
+            drop(ChatFilterStage.TOO_LONG);
+            return;
+        }
+
+        message = message.trim();
         if (message.isEmpty()) {
+            drop(ChatFilterStage.NOT_A_QUESTION);
             return;
         }
 
-        ChatUtil.sendDebug("Chat message from " + player.getName() + ": " + message);
+        String plainMessage = message;
+        DebugUtil.trace(DebugCategory.CHAT, () -> "Chat message from " + player.getName() + ": " + plainMessage);
 
         Question question = getQuestion(event, message);
 
+        if (question.question() == null) {
+            drop(ChatFilterStage.NOT_A_QUESTION);
+            return;
+        }
+        detectedQuestions.incrementAndGet();
+
         if(!shouldAnswer(player, question)){
             return;
         }
+        answeredMessages.incrementAndGet();
 
         var processingMessage = ChatUtil.formatConfigMessage("messages.processing", "Processing question...");
 
         // Process the request
         // Note: this will automatically handle thread switching
-        var request = HttpUtil.askAI(question.question());
-
         if (question.privateQuestion()) {
-            ChatUtil.sendAiAnswer(request, player, processingMessage, logger);
+            ChatUtil.askAndSendAiAnswer(question.question(), player, processingMessage, logger);
         } else {
-            ChatUtil.sendAiAnswer(request, processingMessage, logger);
+            ChatUtil.askAndSendAiAnswer(question.question(), processingMessage, logger);
         }
     }
 
+    /**
+     * Serializes a chat message to plain text, giving up as soon as it exceeds the maximum length.
+     *
+     * @param message   The chat message component.
+     * @param maxLength The maximum length of the plain text.
+     * @return The plain text of the message, or null if it is longer than the maximum length.
+     */
+    private String serialize(Component message, int maxLength) {
+        StringBuilder plainText = new StringBuilder();
+        boolean[] exceeded = {false};
+
+        flattener.flatten(message, new FlattenerListener() {
+            @Override
+            public void component(@NotNull String text) {
+                if (plainText.length() + text.length() > maxLength) {
+                    exceeded[0] = true;
+                    return;
+                }
+                plainText.append(text);
+            }
+
+            @Override
+            public boolean shouldContinue() {
+                return !exceeded[0];
+            }
+        });
+
+        return exceeded[0] ? null : plainText.toString();
+    }
+
+    /**
+     * Counts a message dropped by the chat filter.
+     *
+     * @param stage The stage that dropped the message.
+     */
+    private static void drop(ChatFilterStage stage) {
+        droppedMessages.incrementAndGet(stage.ordinal());
+    }
+
+    /**
+     * Gets the number of chat messages seen by the listener.
+     *
+     * @return the number of scanned chat messages
+     */
+    public static long getScannedMessages() {
+        return scannedMessages.get();
+    }
+
+    /**
+     * Gets the number of chat messages detected as questions, before validation and rate limits.
+     *
+     * @return the number of detected questions
+     */
+    public static long getDetectedQuestions() {
+        return detectedQuestions.get();
+    }
+
+    /**
+     * Gets the number of chat messages that were sent to the AI.
+     *
+     * @return the number of answered chat messages
+     */
+    public static long getAnsweredMessages() {
+        return answeredMessages.get();
+    }
+
+    /**
+     * Gets the number of chat messages dropped by a stage of the chat filter.
+     *
+     * @param stage The chat filter stage.
+     * @return the number of messages dropped by the stage
+     */
+    public static long getDroppedMessages(ChatFilterStage stage) {
+        return droppedMessages.get(stage.ordinal());
+    }
+
     /**
      * Extracts a question from a chat message based on various criteria.
      * <p>
      * This method handles three main cases:
      * 1. Interactive mode: If the player is in interactive mode, the message is returned as-is
      * and the event is cancelled to prevent it from appearing in chat.
-     * 2. Tagged questions: If the message contains the configured tag (e.g., @Helper),
-     * the tag is removed and the remaining text is returned as the question.
+     * 2. Tagged questions: If the message contains one of the configured tags (e.g., @Helper),
+     * the tags are removed and the remaining text is returned as the question.
      * 3. Automatic detection: If automatic question detection is enabled and the message
      * ends with a question mark, it is returned as a detected question.
      *
@@ -82,63 +213,39 @@ public class ChatListener implements Listener {
     private Question getQuestion(AsyncChatEvent event, String message) {
         Player player = event.getPlayer();
 
-        // get configs
-        FileConfiguration config = BattistaAiSpigot.getConfigs();
-        boolean autoDetectQuestions = config.getBoolean("chat.auto_detect_questions.enabled", false);
-        String tag = config.getString("chat.tag", "@Helper");
-
-        // Check if the user is in interactive mode
-        if (LimitsUtil.hasPendingQuestions(player)) {
+        // Check if the user is in interactive mode, claiming the session closes it
+        if (InteractiveSessionUtil.claim(player.getUniqueId())) {
             // Cancel the event to prevent the message from appearing in chat
             event.setCancelled(true);
-            // Cancel the interactive timeout task
-            LimitsUtil.removePendingQuestions(player);
-            // start a validity check and warn the player
-            ChatUtil.is_question_valid(message, player, true);
-            // create question object
-            return new Question(message, true);
-        }
-        // Check if the message contains the tag (e.g., @Helper)
-        else if (hasTag(config, message, tag)) {
-            // Remove the tag from the message
-            Pattern tagPattern = Pattern.compile(Pattern.quote(tag) + "\\s*", Pattern.CASE_INSENSITIVE);
-            var question = tagPattern.matcher(message).replaceAll("").trim();
+            // normalize the question like any other one, then start a validity check and warn the player
+            var question = QuestionMatcher.normalize(message);
+            ChatUtil.is_question_valid(question, player, true);
             // create question object
-            return new Question(question, false);
-        }
-        // Check for automatic question detection
-        else if (autoDetectQuestions && QUESTION_PATTERN.matcher(message).matches()) {
-            ChatUtil.sendDebug("Automatically detected question: " + message);
-            return new Question(message, false);
+            return new Question(question, true);
         }
-        return new Question(null, false);
-    }
 
-    /**
-     * Checks if a message contains a specific tag.
-     *
-     * @param message The message to check for the tag.
-     * @param tag     The tag to look for in the message.
-     * @return true if the tag is found and tagging is enabled, false otherwise.
-     */
-    private boolean hasTag(FileConfiguration config, String message, String tag) {
-        // get configs
-        boolean taggingEnabled = config.getBoolean("chat.tagging.enabled", true);
+        // Check for tags (e.g., @Helper) and automatic question detection in a single pass
+        Settings.Chat chatSettings = BattistaAiSpigot.getSettings().chat();
+        var match = chatSettings.questionMatcher().match(message, chatSettings.taggingEnabled(), chatSettings.autoDetectQuestions());
+        if (match == null) {
+            return new Question(null, false);
+        }
 
-        if (taggingEnabled && message.toLowerCase().contains(tag.toLowerCase())) {
-            ChatUtil.sendDebug("Tag detected.");
-            return true;
+        if (match.tagged()) {
+            DebugUtil.trace(DebugCategory.CHAT, () -> "Tag detected.");
+        } else {
+            DebugUtil.trace(DebugCategory.CHAT, () -> "Automatically detected question: " + message);
         }
-        return false;
+        return new Question(match.question(), false);
     }
 
     /**
      * Determines whether the AI should answer the given question based on various criteria.
      * This method performs the following checks:
      * 1. Validates the question content and warns the player if invalid (only for private questions)
-     * 2. Verifies the player has the required permission to use the AI helper
-     * 3. Checks if the player has exceeded their rate limits
-     * 4. Checks if the global rate limits have been exceeded
+     * 2. Checks if the player has exceeded their rate limits
+     * 3. Checks if the global rate limits have been exceeded
+     * A rate limited player is put on a short cooldown, during which their messages are dropped early.
      *
      * @param player The player who asked the question
      * @param question The question object containing the question text and privacy setting
@@ -147,12 +254,7 @@ public class ChatListener implements Listener {
     private boolean shouldAnswer(Player player, Question question) {
         // check if the question is valid and warn the player only if the question was private (avoid spamming public chat)
         if (!ChatUtil.is_question_valid(question.question(), player, question.privateQuestion())) {
-            return false;
-        }
-
-        // Check if the player has the required permission
-        if (!player.hasPermission("battista.use")) {
-            ChatUtil.sendDebug("Player " + player.getName() + " does not have permission for AI helper");
+            drop(ChatFilterStage.INVALID_QUESTION);
             return false;
         }
 
@@ -160,6 +262,8 @@ public class ChatListener implements Listener {
         if (LimitsUtil.isPlayerRateLimitExceeded(player.getUniqueId())) {
             var rateLimitMessage = ChatUtil.formatConfigMessage("messages.player_ratelimit_exceded", "Player Ratelimit Exceeded");
             Bukkit.broadcast(rateLimitMessage);
+            LimitsUtil.markRejected(player.getUniqueId());
+            drop(ChatFilterStage.RATE_LIMITED);
             return false;
         }
 
@@ -167,6 +271,8 @@ public class ChatListener implements Listener {
         if (LimitsUtil.isGlobalRateLimitExceeded()) {
             var rateLimitMessage = ChatUtil.formatConfigMessage("messages.global_ratelimit_exceded", "Global Ratelimit Exceeded");
             Bukkit.broadcast(rateLimitMessage);
+            LimitsUtil.markRejected(player.getUniqueId());
+            drop(ChatFilterStage.RATE_LIMITED);
             return false;
         }
 
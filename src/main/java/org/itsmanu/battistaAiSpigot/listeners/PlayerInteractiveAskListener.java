@@ -3,14 +3,14 @@ package org.itsmanu.battistaAiSpigot.listeners;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerQuitEvent;
-import org.itsmanu.battistaAiSpigot.utils.LimitsUtil;
+import org.itsmanu.battistaAiSpigot.utils.InteractiveSessionUtil;
 
 public class PlayerInteractiveAskListener implements Listener {
 
     @EventHandler
     public void onPlayerQuit(PlayerQuitEvent event) {
-        // Cancel any pending timeout tasks
-        LimitsUtil.removePendingQuestions(event.getPlayer());
+        // Close the interactive session, if any
+        InteractiveSessionUtil.close(event.getPlayer().getUniqueId());
     }
 
 }
@@ -0,0 +1,156 @@
+package org.itsmanu.battistaAiSpigot.utils;
+
+import org.bukkit.Bukkit;
+import org.itsmanu.battistaAiSpigot.BattistaAiSpigot;
+import org.itsmanu.battistaAiSpigot.dto.Backend;
+import org.itsmanu.battistaAiSpigot.dto.Settings;
+import org.itsmanu.battistaAiSpigot.dto.enums.DebugCategory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Logger;
+
+public class BackendUtil {
+
+    private static final Logger logger = BattistaAiSpigot.getInstance().getLogger();
+
+    // rebuilt on enable and on reload, never modified afterward
+    private static volatile List<Backend> backends = List.of();
+    private static int probeTaskId = -1;
+
+    private BackendUtil() {
+    }
+
+    /**
+     * Builds the backends from the configured endpoints, dropping the metrics of the previous ones.
+     */
+    public static void initialize() {
+        List<Backend> configured = new ArrayList<>();
+        for (Settings.BackendAddress address : BattistaAiSpigot.getSettings().endpoint().backends()) {
+            configured.add(new Backend(address.answerUrl(), address.listUrl()));
+        }
+        backends = List.copyOf(configured);
+    }
+
+    /**
+     * Picks the backend for the next request with the configured load balancing policy, among the healthy ones.
+     * If every backend was ejected, all of them are considered, the circuit breaker takes care of a full outage.
+     *
+     * @return the backend with the lowest load score
+     */
+    public static Backend select() {
+        List<Backend> candidates = backends;
+        var policy = BattistaAiSpigot.getSettings().endpoint().loadBalancing();
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+
+        boolean anyHealthy = false;
+        for (Backend backend : candidates) {
+            if (backend.isHealthy()) {
+                anyHealthy = true;
+                break;
+            }
+        }
+
+        // start from a random backend, so ties don't always go to the first one
+        int start = ThreadLocalRandom.current().nextInt(candidates.size());
+        Backend selected = null;
+        double selectedScore = Double.MAX_VALUE;
+        for (int i = 0; i < candidates.size(); i++) {
+            Backend backend = candidates.get((start + i) % candidates.size());
+            if (anyHealthy && !backend.isHealthy()) {
+                continue;
+            }
+            double score = backend.getScore(policy);
+            if (score < selectedScore) {
+                selected = backend;
+                selectedScore = score;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Picks a backend for a hedged request, preferring any backend other than the one of the original request.
+     * With a single backend, the hedged request goes to the same backend, and likely to another of its workers.
+     *
+     * @param excluded The backend of the original request.
+     * @return the backend with the lowest load score, other than the excluded one if possible
+     */
+    public static Backend selectOther(Backend excluded) {
+        List<Backend> candidates = backends;
+        var policy = BattistaAiSpigot.getSettings().endpoint().loadBalancing();
+
+        Backend selected = excluded;
+        double selectedScore = Double.MAX_VALUE;
+        for (Backend backend : candidates) {
+            if (backend == excluded || !backend.isHealthy()) {
+                continue;
+            }
+            double score = backend.getScore(policy);
+            if (score < selectedScore) {
+                selected = backend;
+                selectedScore = score;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Records the outcome of a request, ejecting the backend after too many consecutive failures.
+     *
+     * @param backend The backend the request was sent to.
+     * @param failed  Whether the request failed, because of a connection error or a server error.
+     * @param latency The time the backend took to answer, in milliseconds.
+     */
+    public static void recordOutcome(Backend backend, boolean failed, long latency) {
+        int consecutiveFailures = backend.onRequestCompleted(failed, latency);
+        if (backends.size() > 1 && consecutiveFailures >= BattistaAiSpigot.getSettings().endpoint().ejectAfterFailures()
+                && backend.eject()) {
+            logger.warning("Battista backend " + backend.getAnswerUrl() + " ejected after " + consecutiveFailures
+                    + " consecutive failures");
+        }
+    }
+
+    /**
+     * Starts the task probing the ejected backends, a backend is added back as soon as a probe succeeds.
+     */
+    public static void startProbeTask() {
+        long interval = Math.max(1, BattistaAiSpigot.getSettings().endpoint().probeIntervalSeconds()) * 20L;
+        probeTaskId = Bukkit.getScheduler().runTaskTimerAsynchronously(BattistaAiSpigot.getInstance(),
+                BackendUtil::probeEjectedBackends, interval, interval).getTaskId();
+    }
+
+    /**
+     * Stops the task probing the ejected backends.
+     */
+    public static void stopProbeTask() {
+        if (probeTaskId != -1) {
+            Bukkit.getScheduler().cancelTask(probeTaskId);
+            probeTaskId = -1;
+        }
+    }
+
+    private static void probeEjectedBackends() {
+        for (Backend backend : backends) {
+            if (backend.isHealthy() || !backend.startProbe()) {
+                continue;
+            }
+
+            DebugUtil.trace(DebugCategory.HTTP, () -> "Battista probing ejected backend " + backend.getListUrl());
+            HttpUtil.probeBackend(backend.getListUrl()).whenComplete((healthy, throwable) -> {
+                backend.endProbe();
+                if (throwable == null && healthy) {
+                    backend.restore();
+                    logger.info("Battista backend " + backend.getAnswerUrl() + " is healthy again");
+                }
+            });
+        }
+    }
+
+    public static List<Backend> getBackends() {
+        return backends;
+    }
+}
@@ -0,0 +1,153 @@
+package org.itsmanu.battistaAiSpigot.utils;
+
+import org.itsmanu.battistaAiSpigot.BattistaAiSpigot;
+import org.itsmanu.battistaAiSpigot.dto.CachedAnswer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CacheUtil {
+
+    // Access ordered, the eldest entry is always the least recently used one
+    private static final LinkedHashMap<String, CachedAnswer> answers = new LinkedHashMap<>(64, 0.75f, true);
+    private static long cachedBytes = 0;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    // Rough per entry overhead of the map node, the record and the two strings
+    private static final long ENTRY_OVERHEAD = 96;
+
+    private CacheUtil() {
+    }
+
+    /**
+     * Builds the cache key for a question, two questions that only differ in casing, spacing
+     * or trailing punctuation share the same key.
+     *
+     * @param question The question asked by the player.
+     * @param folder   The knowledge source filter the question is answered with.
+     * @return The cache key of the question.
+     */
+    public static String buildKey(String question, String folder) {
+        StringBuilder key = new StringBuilder(folder.length() + question.length() + 1);
+        key.append(folder).append('\n');
+
+        // questions from chat and commands are already normalized, so this is usually a plain copy
+        key.append(QuestionMatcher.normalize(question));
+
+        // strip trailing punctuation, "how do i claim land?" and "how do i claim land" are the same question
+        int end = key.length();
+        while (end > folder.length() + 1 && isTrailingPunctuation(key.charAt(end - 1))) {
+            end--;
+        }
+        key.setLength(end);
+
+        return key.toString().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Retrieves a cached answer, counting the lookup as a hit or a miss.
+     *
+     * @param key The cache key built with {@link #buildKey(String, String)}.
+     * @return The cached answer, or null if there is no valid answer for the key.
+     */
+    public static String get(String key) {
+        if (!BattistaAiSpigot.getSettings().cache().enabled()) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        synchronized (answers) {
+            CachedAnswer cached = answers.get(key);
+            if (cached != null && cached.isExpired(now)) {
+                answers.remove(key);
+                cachedBytes -= cached.size();
+                cached = null;
+            }
+            if (cached == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return cached.answer();
+        }
+    }
+
+    /**
+     * Stores an answer in the cache, evicting the least recently used answers when the
+     * configured entry or size bounds are exceeded.
+     *
+     * @param key    The cache key built with {@link #buildKey(String, String)}.
+     * @param answer The answer received from the backend.
+     */
+    public static void put(String key, String answer) {
+        var cacheSettings = BattistaAiSpigot.getSettings().cache();
+        if (!cacheSettings.enabled() || answer == null || answer.isEmpty()) {
+            return;
+        }
+
+        long ttl = cacheSettings.ttlMillis();
+        int maxEntries = cacheSettings.maxEntries();
+        long maxBytes = cacheSettings.maxBytes();
+
+        // strings are stored as UTF-16 in the worst case
+        long size = ENTRY_OVERHEAD + (key.length() + answer.length()) * 2L;
+        if (size > maxBytes) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        synchronized (answers) {
+            CachedAnswer previous = answers.put(key, new CachedAnswer(answer, now + ttl, size));
+            if (previous != null) {
+                cachedBytes -= previous.size();
+            }
+            cachedBytes += size;
+
+            Iterator<Map.Entry<String, CachedAnswer>> eldest = answers.entrySet().iterator();
+            while ((answers.size() > maxEntries || cachedBytes > maxBytes) && eldest.hasNext()) {
+                cachedBytes -= eldest.next().getValue().size();
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Removes every cached answer, used when the configuration is reloaded as the
+     * backend or its knowledge source may have changed.
+     */
+    public static void invalidate() {
+        synchronized (answers) {
+            answers.clear();
+            cachedBytes = 0;
+        }
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    public static long getEvictions() {
+        return evictions.get();
+    }
+
+    public static int getSize() {
+        synchronized (answers) {
+            return answers.size();
+        }
+    }
+
+    private static boolean isTrailingPunctuation(char c) {
+        return c == '?' || c == '!' || c == '.' || c == ' ';
+    }
+}
@@ -1,30 +1,123 @@
 package org.itsmanu.battistaAiSpigot.utils;
 
-import de.themoep.minedown.adventure.MineDown;
 import net.kyori.adventure.text.Component;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.itsmanu.battistaAiSpigot.BattistaAiSpigot;
+import org.itsmanu.battistaAiSpigot.dto.enums.DebugCategory;
+import org.itsmanu.battistaAiSpigot.dto.enums.MetricHistogram;
+import org.itsmanu.battistaAiSpigot.dto.enums.RequestPriority;
 
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class ChatUtil {
 
+    private static final int RENDER_QUEUE_CAPACITY = 256;
+
+    // single thread, so the sentences of a streamed answer are rendered and delivered in order
+    private static ThreadPoolExecutor renderer;
+
     private ChatUtil() {
     }
 
+    /**
+     * Starts the background thread rendering the AI answers into components.
+     */
+    public static synchronized void startRenderer() {
+        if (renderer != null) {
+            return;
+        }
+        // answers are never rendered by the caller, that would let a sentence overtake the queued ones
+        renderer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(RENDER_QUEUE_CAPACITY),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "Battista-Answer-Renderer");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                ChatUtil::onRenderQueueFull);
+    }
+
+    /**
+     * Waits for room in the full render queue. The HTTP threads wait themselves, which keeps the sentences of
+     * a streamed answer in order, the main thread hands the answer to an async task to wait in its place.
+     *
+     * @param task     The rendering task that didn't fit in the queue.
+     * @param executor The renderer.
+     */
+    private static void onRenderQueueFull(Runnable task, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            // the plugin is disabling, the answer is dropped
+            return;
+        }
+        if (Bukkit.isPrimaryThread()) {
+            Bukkit.getScheduler().runTaskAsynchronously(BattistaAiSpigot.getInstance(), () -> onRenderQueueFull(task, executor));
+            return;
+        }
+        try {
+            executor.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops the background renderer, after it rendered the pending answers.
+     */
+    public static synchronized void stopRenderer() {
+        if (renderer == null) {
+            return;
+        }
+        renderer.shutdown();
+        try {
+            renderer.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        renderer = null;
+    }
+
+    /**
+     * Gets the executor the answers are rendered on.
+     *
+     * @return the renderer, or the calling thread if the renderer is not running
+     */
+    private static synchronized Executor getRenderer() {
+        return renderer != null ? renderer : Runnable::run;
+    }
+
     /**
      * Retrieves a message from the configuration and formats it with the configured prefix and color codes.
+     * The message is parsed when the configuration is loaded, this only returns the prebuilt component.
      *
      * @param path The path to the message in the configuration.
      * @param def  The default message to use if the path is not found.
      * @return The formatted message with the prefix and color codes.
      */
     public static Component formatConfigMessage(String path, String def) {
-        var message = BattistaAiSpigot.getConfigs().getString(path, def);
-        return formatMessage(message);
+        return BattistaAiSpigot.getSettings().templates().get(path, def);
+    }
+
+    /**
+     * Retrieves a message from the configuration and formats it with the configured prefix and color codes,
+     * replacing its placeholders.
+     *
+     * @param path         The path to the message in the configuration.
+     * @param def          The default message to use if the path is not found.
+     * @param placeholders Pairs of placeholder and value, e.g. "{position}", "3".
+     * @return The formatted message with the prefix, color codes and placeholder values.
+     */
+    public static Component formatConfigMessage(String path, String def, String... placeholders) {
+        return BattistaAiSpigot.getSettings().templates().get(path, def, placeholders);
     }
 
     /**
@@ -34,20 +127,57 @@ public class ChatUtil {
      * @return The formatted message with the prefix.
      */
     public static Component formatMessage(String message) {
-        String prefix = BattistaAiSpigot.getConfigs().getString("chat.response_prefix");
-        return new MineDown(prefix + message).toComponent();
+        return BattistaAiSpigot.getSettings().templates().format(message);
     }
 
     /**
-     * Sends a debug message to the console if debug mode is enabled in the configuration.
+     * Asks the AI a question and broadcasts the answer to all players.
+     * When the answer is streamed by the backend, completed sentences are broadcast as soon as they arrive.
+     * Public questions have a low priority in the request queue, and are shed first when it is full.
      *
-     * @param message The debug message to be sent.
+     * @param question          The question to ask.
+     * @param processingMessage The message sent while the question is processed.
+     * @param logger            The logger to use for error reporting.
      */
-    public static void sendDebug(String message) {
-        message = formatMessage(message).toString();
-        if (BattistaAiSpigot.getConfigs().getBoolean("debug", false)) {
-            BattistaAiSpigot.getInstance().getLogger().info(message);
+    public static void askAndSendAiAnswer(String question, Component processingMessage, Logger logger) {
+        askAndSendAiAnswer(question, null, processingMessage, logger);
+    }
+
+    /**
+     * Asks the AI a question and responds to the player.
+     * When the answer is streamed by the backend, completed sentences are sent as soon as they arrive.
+     * If the question has to wait in the request queue, its position is sent instead of the processing message.
+     *
+     * @param question          The question to ask.
+     * @param player            The player who asked the question, or null to broadcast the answer.
+     * @param processingMessage The message sent while the question is processed.
+     * @param logger            The logger to use for error reporting.
+     */
+    public static void askAndSendAiAnswer(String question, Player player, Component processingMessage, Logger logger) {
+        AtomicBoolean streamed = new AtomicBoolean(false);
+
+        // Only the first sentence carries the prefix, the following ones read as the same message
+        Consumer<String> partialAnswerConsumer = sentences -> {
+            boolean first = streamed.compareAndSet(false, true);
+            getRenderer().execute(() -> {
+                long renderStart = System.nanoTime();
+                var templates = BattistaAiSpigot.getSettings().templates();
+                var formattedSentences = first ? templates.format(sentences) : templates.formatContinuation(sentences);
+                MetricsUtil.record(MetricHistogram.RENDER_TIME, (System.nanoTime() - renderStart) / 1000);
+                deliver(player, formattedSentences);
+            });
+        };
+
+        // private questions come from /ask or interactive mode, and are answered before public ones
+        var priority = player != null ? RequestPriority.HIGH : RequestPriority.LOW;
+        AtomicInteger queuePosition = new AtomicInteger();
+
+        var request = HttpUtil.askAI(question, priority, partialAnswerConsumer, queuePosition::set);
+        if (queuePosition.get() > 0) {
+            processingMessage = formatConfigMessage("messages.queue_position", "You are #{position} in queue...",
+                    "{position}", String.valueOf(queuePosition.get()));
         }
+        sendAiAnswer(request, player, processingMessage, logger, streamed);
     }
 
     /**
@@ -69,42 +199,61 @@ public class ChatUtil {
      * @param player    The player who asked the question.
      */
     public static void sendAiAnswer(CompletableFuture<String> aiRequest, Player player, Component processingMessage, Logger logger) {
+        sendAiAnswer(aiRequest, player, processingMessage, logger, new AtomicBoolean(false));
+    }
 
-        if (player != null) {
-            player.sendMessage(processingMessage);
-        } else {
-            Bukkit.broadcast(processingMessage);
-        }
+    /**
+     * Sends the provided AI request asynchronously and responds to the player, unless the answer
+     * was already delivered while it was streamed.
+     *
+     * @param aiRequest The ai request to send.
+     * @param player    The player who asked the question, or null to broadcast the answer.
+     * @param streamed  Whether the answer was already delivered sentence by sentence.
+     */
+    private static void sendAiAnswer(CompletableFuture<String> aiRequest, Player player, Component processingMessage,
+                                     Logger logger, AtomicBoolean streamed) {
 
-        // Execute the request asynchronously
-        aiRequest.thenAccept(response -> {
-            // Switch back to the main thread to send the message
-            Bukkit.getScheduler().runTask(BattistaAiSpigot.getInstance(), () -> {
-                var formattedResponse = ChatUtil.formatMessage(response);
-
-                if (player != null) {
-                    player.sendMessage(formattedResponse);
-                } else {
-                    Bukkit.broadcast(formattedResponse);
-                }
-            });
-        }).exceptionally(throwable -> {
+        deliver(player, processingMessage);
+
+        // Render the answer off the main thread, parsing a long answer would otherwise delay the tick
+        aiRequest.thenAcceptAsync(response -> {
+            if (streamed.get()) {
+                return;
+            }
+            long renderStart = System.nanoTime();
+            var formattedResponse = ChatUtil.formatMessage(response);
+            MetricsUtil.record(MetricHistogram.RENDER_TIME, (System.nanoTime() - renderStart) / 1000);
+            deliver(player, formattedResponse);
+        }, getRenderer()).exceptionally(throwable -> {
             // Handle errors
-            Bukkit.getScheduler().runTask(BattistaAiSpigot.getInstance(), () -> {
-                var errorMessage = ChatUtil.formatMessage("An error occurred: " + throwable.getMessage());
-
-                if (player != null) {
-                    player.sendMessage(errorMessage);
-                } else {
-                    Bukkit.broadcast(errorMessage);
-                }
-            });
+            var errorMessage = ChatUtil.formatMessage("An error occurred: " + throwable.getMessage());
+            deliver(player, errorMessage);
 
             logger.log(Level.SEVERE, "Error during Battista AI request", throwable);
             return null;
         });
     }
 
+    /**
+     * Sends a message to the player, or broadcasts it to all players if there is no player.
+     * Sending to a single player is safe from any thread, a broadcast walks the online players and
+     * is handed to the main thread, with the message already rendered.
+     *
+     * @param player  The player to send the message to, or null to broadcast it.
+     * @param message The message to send.
+     */
+    private static void deliver(Player player, Component message) {
+        if (player != null) {
+            if (player.isOnline()) {
+                player.sendMessage(message);
+            }
+        } else if (Bukkit.isPrimaryThread()) {
+            Bukkit.broadcast(message);
+        } else {
+            Bukkit.getScheduler().runTask(BattistaAiSpigot.getInstance(), () -> Bukkit.broadcast(message));
+        }
+    }
+
     /**
      * Validates a question based on length requirements.
      *
@@ -115,34 +264,32 @@ public class ChatUtil {
     public static boolean is_question_valid(String question, Player player, boolean warnPlayer) {
 
         if (question == null || question.isEmpty()) {
-            var message = ChatUtil.formatConfigMessage("messages.empty_question", "Empty question");
             if (warnPlayer) {
-                player.sendMessage(message);
+                player.sendMessage(ChatUtil.formatConfigMessage("messages.empty_question", "Empty question"));
             }
-            sendDebug(message.toString());
+            DebugUtil.trace(DebugCategory.CHAT, () -> "Empty question from " + player.getName());
             return false;
         }
 
-        var min_length = BattistaAiSpigot.getConfigs().getInt("chat.auto_detect_questions.min_length", 5);
-        var max_length = BattistaAiSpigot.getConfigs().getInt("chat.auto_detect_questions.max_length", 150);
+        var chatSettings = BattistaAiSpigot.getSettings().chat();
+        var min_length = chatSettings.minLength();
+        var max_length = chatSettings.maxLength();
 
         if (question.length() < min_length) {
             // Question is too short, ignore it
-            var message = ChatUtil.formatConfigMessage("messages.question_too_short", "Question too short.");
             if (warnPlayer) {
-                player.sendMessage(message);
+                player.sendMessage(ChatUtil.formatConfigMessage("messages.question_too_short", "Question too short."));
             }
-            sendDebug(message.toString());
+            DebugUtil.trace(DebugCategory.CHAT, () -> "Question too short from " + player.getName() + ": " + question);
             return false;
         }
 
         if (question.length() > max_length) {
             // Question is too long, send an error message
-            var message = ChatUtil.formatConfigMessage("messages.question_too_long", "Question too long.");
             if (warnPlayer) {
-                player.sendMessage(message);
+                player.sendMessage(ChatUtil.formatConfigMessage("messages.question_too_long", "Question too long."));
             }
-            sendDebug(message.toString());
+            DebugUtil.trace(DebugCategory.CHAT, () -> "Question too long from " + player.getName() + ": " + question);
             return false;
         }
         return true;
@@ -0,0 +1,332 @@
+package org.itsmanu.battistaAiSpigot.utils;
+
+import org.bukkit.Bukkit;
+import org.itsmanu.battistaAiSpigot.BattistaAiSpigot;
+import org.itsmanu.battistaAiSpigot.dto.Settings;
+import org.itsmanu.battistaAiSpigot.dto.enums.CircuitState;
+import org.itsmanu.battistaAiSpigot.dto.enums.DebugCategory;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+public class CircuitBreakerUtil {
+
+    private static final Object lock = new Object();
+    private static final Logger logger = BattistaAiSpigot.getInstance().getLogger();
+
+    // outcomes of the most recent calls, used as a ring buffer, guarded by the lock
+    private static boolean[] failedCalls = new boolean[0];
+    private static boolean[] slowCalls = new boolean[0];
+    private static int nextCall = 0;
+    private static int recordedCalls = 0;
+    private static int failedCount = 0;
+    private static int slowCount = 0;
+
+    // returned by acquirePermit when the request must fail fast
+    public static final long REJECTED = -1;
+
+    private static CircuitState state = CircuitState.CLOSED;
+    private static long stateChangedAt = System.currentTimeMillis();
+    // incremented on every state change, permits of an earlier generation no longer count
+    private static long generation = 0;
+    // trial requests left and still running while half open
+    private static int trialPermits = 0;
+    private static int trialsRunning = 0;
+    // time the last trial request was sent, a trial still running past the slow call time can only end up slow
+    private static long lastTrialAt = 0;
+
+    private static final AtomicBoolean probeRunning = new AtomicBoolean(false);
+    private static final AtomicLong rejectedRequests = new AtomicLong();
+    private static int probeTaskId = -1;
+
+    private CircuitBreakerUtil() {
+    }
+
+    /**
+     * Checks if a request may be sent to the backend. Always allowed while the circuit is closed,
+     * rejected while it is open, and allowed for a limited number of trial requests while it is half open.
+     * <p>
+     * The returned permit tells the state the request was sent in, its outcome must be recorded with it,
+     * or the permit released if the request was never sent.
+     *
+     * @return the permit of the request, or {@link #REJECTED} if it must fail fast.
+     */
+    public static long acquirePermit() {
+        var breaker = BattistaAiSpigot.getSettings().circuitBreaker();
+        synchronized (lock) {
+            if (!breaker.enabled()) {
+                return generation;
+            }
+            switch (state) {
+                case CLOSED:
+                    return generation;
+                case HALF_OPEN:
+                    if (trialPermits > 0) {
+                        trialPermits--;
+                        trialsRunning++;
+                        lastTrialAt = System.currentTimeMillis();
+                        return generation;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        rejectedRequests.incrementAndGet();
+        return REJECTED;
+    }
+
+    /**
+     * Gives back the permit of a request that was never sent, e.g. because it could not be prepared,
+     * so a trial permit can be used by another request.
+     *
+     * @param permit The permit returned by {@link #acquirePermit()}.
+     */
+    public static void release(long permit) {
+        synchronized (lock) {
+            if (permit == generation && state == CircuitState.HALF_OPEN && trialsRunning > 0) {
+                trialsRunning--;
+                trialPermits++;
+            }
+        }
+    }
+
+    /**
+     * Checks if the circuit is open, so requests can fail fast before waiting in the request queue.
+     *
+     * @return true if the circuit breaker is enabled and open, false otherwise.
+     */
+    public static boolean isOpen() {
+        if (!BattistaAiSpigot.getSettings().circuitBreaker().enabled()) {
+            return false;
+        }
+        synchronized (lock) {
+            return state == CircuitState.OPEN;
+        }
+    }
+
+    /**
+     * Records the outcome of a request sent to the backend, opening or closing the circuit when needed.
+     * Late outcomes of requests sent before the last state change are ignored: they tell nothing about
+     * the backend since the change, and while half open they are not the trial requests.
+     *
+     * @param permit  The permit the request was sent with.
+     * @param failed  Whether the request failed, because of a connection error or a server error.
+     * @param latency The time the backend took to answer, in milliseconds.
+     */
+    public static void recordOutcome(long permit, boolean failed, long latency) {
+        Settings.CircuitBreaker breaker = BattistaAiSpigot.getSettings().circuitBreaker();
+        if (!breaker.enabled()) {
+            return;
+        }
+        boolean slow = latency >= breaker.slowCallMillis();
+
+        synchronized (lock) {
+            if (permit != generation) {
+                return;
+            }
+            if (state == CircuitState.HALF_OPEN) {
+                trialsRunning = Math.max(0, trialsRunning - 1);
+                if (failed || slow) {
+                    transitionTo(CircuitState.OPEN, "trial request " + (failed ? "failed" : "was slow"));
+                } else if (trialPermits == 0 && trialsRunning == 0) {
+                    transitionTo(CircuitState.CLOSED, "trial requests succeeded");
+                }
+                return;
+            }
+            record(breaker.windowSize(), failed, slow);
+            if (recordedCalls < breaker.minimumCalls()) {
+                return;
+            }
+
+            int failureRate = failedCount * 100 / recordedCalls;
+            int slowCallRate = slowCount * 100 / recordedCalls;
+            if (failureRate >= breaker.failureRateThreshold()) {
+                transitionTo(CircuitState.OPEN, "failure rate " + failureRate + "%");
+            } else if (slowCallRate >= breaker.slowCallRateThreshold()) {
+                transitionTo(CircuitState.OPEN, "slow call rate " + slowCallRate + "%");
+            }
+        }
+    }
+
+    /**
+     * Starts the task probing the backend health while the circuit is open.
+     */
+    public static void startProbeTask() {
+        long interval = Math.max(1, BattistaAiSpigot.getSettings().circuitBreaker().probeIntervalSeconds()) * 20L;
+        probeTaskId = Bukkit.getScheduler().runTaskTimerAsynchronously(BattistaAiSpigot.getInstance(),
+                CircuitBreakerUtil::probe, interval, interval).getTaskId();
+    }
+
+    /**
+     * Stops the health probe task and closes the circuit.
+     */
+    public static void stopProbeTask() {
+        if (probeTaskId != -1) {
+            Bukkit.getScheduler().cancelTask(probeTaskId);
+            probeTaskId = -1;
+        }
+        reset();
+    }
+
+    /**
+     * Closes the circuit and forgets the recorded outcomes, used when the configuration is reloaded
+     * as the backend may have changed.
+     */
+    public static void reset() {
+        synchronized (lock) {
+            failedCalls = new boolean[0];
+            slowCalls = new boolean[0];
+            nextCall = 0;
+            recordedCalls = 0;
+            failedCount = 0;
+            slowCount = 0;
+            trialPermits = 0;
+            trialsRunning = 0;
+            state = CircuitState.CLOSED;
+            stateChangedAt = System.currentTimeMillis();
+            generation++;
+        }
+    }
+
+    /**
+     * Sends a health probe to the backend if the circuit is open, and no probe is already running.
+     * A successful probe moves the circuit to half open.
+     * <p>
+     * While half open, the circuit opens again when a trial request never reported its outcome, e.g. because it
+     * was cancelled, otherwise no permit would be left and the circuit would stay half open forever.
+     */
+    private static void probe() {
+        synchronized (lock) {
+            if (state == CircuitState.HALF_OPEN && trialsRunning > 0
+                    && System.currentTimeMillis() - lastTrialAt > BattistaAiSpigot.getSettings().circuitBreaker().slowCallMillis()) {
+                transitionTo(CircuitState.OPEN, "trial request timed out");
+            }
+            if (state != CircuitState.OPEN) {
+                return;
+            }
+        }
+        if (!probeRunning.compareAndSet(false, true)) {
+            return;
+        }
+
+        DebugUtil.trace(DebugCategory.HTTP, () -> "Battista circuit open, probing the backend health");
+        HttpUtil.probeBackend(BackendUtil.select().getListUrl()).whenComplete((healthy, throwable) -> {
+            probeRunning.set(false);
+            if (throwable != null || !healthy) {
+                DebugUtil.trace(DebugCategory.HTTP, () -> "Battista backend health probe failed");
+                return;
+            }
+            synchronized (lock) {
+                if (state == CircuitState.OPEN) {
+                    trialPermits = BattistaAiSpigot.getSettings().circuitBreaker().halfOpenRequests();
+                    trialsRunning = 0;
+                    transitionTo(CircuitState.HALF_OPEN, "health probe succeeded");
+                }
+            }
+        });
+    }
+
+    /**
+     * Records an outcome in the ring buffer, replacing the oldest one when it is full.
+     * Must be called while holding the lock.
+     */
+    private static void record(int windowSize, boolean failed, boolean slow) {
+        if (failedCalls.length != windowSize) {
+            // first call, or the window was resized by a reload
+            failedCalls = new boolean[windowSize];
+            slowCalls = new boolean[windowSize];
+            nextCall = 0;
+            recordedCalls = 0;
+            failedCount = 0;
+            slowCount = 0;
+        }
+
+        if (recordedCalls == windowSize) {
+            if (failedCalls[nextCall]) {
+                failedCount--;
+            }
+            if (slowCalls[nextCall]) {
+                slowCount--;
+            }
+        } else {
+            recordedCalls++;
+        }
+
+        failedCalls[nextCall] = failed;
+        slowCalls[nextCall] = slow;
+        if (failed) {
+            failedCount++;
+        }
+        if (slow) {
+            slowCount++;
+        }
+        nextCall = (nextCall + 1) % windowSize;
+    }
+
+    /**
+     * Changes the circuit state, the recorded outcomes are cleared so the new state starts from scratch.
+     * Must be called while holding the lock.
+     */
+    private static void transitionTo(CircuitState newState, String reason) {
+        CircuitState previous = state;
+        state = newState;
+        stateChangedAt = System.currentTimeMillis();
+        generation++;
+        nextCall = 0;
+        recordedCalls = 0;
+        failedCount = 0;
+        slowCount = 0;
+        if (newState != CircuitState.HALF_OPEN) {
+            trialPermits = 0;
+            trialsRunning = 0;
+        }
+        logger.warning("Battista circuit breaker " + previous.name().toLowerCase() + " -> " + newState.name().toLowerCase()
+                + " (" + reason + ")");
+    }
+
+    public static CircuitState getState() {
+        synchronized (lock) {
+            return state;
+        }
+    }
+
+    public static long getStateChangedAt() {
+        synchronized (lock) {
+            return stateChangedAt;
+        }
+    }
+
+    /**
+     * Gets the failure rate of the recorded calls.
+     *
+     * @return the failure rate in percent, 0 if no call was recorded
+     */
+    public static int getFailureRate() {
+        synchronized (lock) {
+            return recordedCalls == 0 ? 0 : failedCount * 100 / recordedCalls;
+        }
+    }
+
+    /**
+     * Gets the slow call rate of the recorded calls.
+     *
+     * @return the slow call rate in percent, 0 if no call was recorded
+     */
+    public static int getSlowCallRate() {
+        synchronized (lock) {
+            return recordedCalls == 0 ? 0 : slowCount * 100 / recordedCalls;
+        }
+    }
+
+    public static int getRecordedCalls() {
+        synchronized (lock) {
+            return recordedCalls;
+        }
+    }
+
+    public static long getRejectedRequests() {
+        return rejectedRequests.get();
+    }
+}
@@ -0,0 +1,105 @@
+package org.itsmanu.battistaAiSpigot.utils;
+
+import org.itsmanu.battistaAiSpigot.BattistaAiSpigot;
+import org.itsmanu.battistaAiSpigot.dto.enums.DebugCategory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+public class DebugUtil {
+
+    private static final int QUEUE_CAPACITY = 4096;
+
+    // trace lines waiting to be written, producers never block on it
+    private static final BlockingQueue<String> pendingLines = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final AtomicLong droppedLines = new AtomicLong();
+
+    private static Thread writer;
+
+    private DebugUtil() {
+    }
+
+    /**
+     * Checks if debug output is enabled for a category.
+     *
+     * @param category The debug category.
+     * @return true if debug mode is enabled and the category is traced, false otherwise.
+     */
+    public static boolean isEnabled(DebugCategory category) {
+        return BattistaAiSpigot.getSettings().debugCategories().contains(category);
+    }
+
+    /**
+     * Queues a debug line for the console if debug mode is enabled for the category.
+     * The message is only built when it is actually going to be written, and the line is written
+     * by a background thread, so tracing never blocks the calling thread on console output.
+     * Lines are dropped when the queue is full.
+     *
+     * @param category The debug category.
+     * @param message  The supplier of the debug message.
+     */
+    public static void trace(DebugCategory category, Supplier<String> message) {
+        if (!isEnabled(category)) {
+            return;
+        }
+        String line = "[" + category.name().toLowerCase() + "] " + message.get();
+        if (!pendingLines.offer(line)) {
+            droppedLines.incrementAndGet();
+        }
+    }
+
+    /**
+     * Starts the background thread writing the debug lines to the plugin logger.
+     */
+    public static synchronized void startWriter() {
+        if (writer != null) {
+            return;
+        }
+
+        Logger logger = BattistaAiSpigot.getInstance().getLogger();
+        writer = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    logger.info(pendingLines.take());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // write whatever is left before stopping
+            String line;
+            while ((line = pendingLines.poll()) != null) {
+                logger.info(line);
+            }
+        }, "Battista-Debug-Writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Stops the background writer, after it wrote the pending debug lines.
+     */
+    public static synchronized void stopWriter() {
+        if (writer == null) {
+            return;
+        }
+        writer.interrupt();
+        try {
+            writer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+    }
+
+    /**
+     * Gets the number of debug lines dropped because the writer could not keep up.
+     *
+     * @return the number of dropped debug lines
+     */
+    public static long getDroppedLines() {
+        return droppedLines.get();
+    }
+}
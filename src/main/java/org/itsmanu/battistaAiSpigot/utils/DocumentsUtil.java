@@ -0,0 +1,89 @@
+package org.itsmanu.battistaAiSpigot.utils;
+
+import org.bukkit.Bukkit;
+import org.itsmanu.battistaAiSpigot.BattistaAiSpigot;
+import org.itsmanu.battistaAiSpigot.dto.DocumentList;
+import org.itsmanu.battistaAiSpigot.dto.enums.DebugCategory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class DocumentsUtil {
+
+    // latest document list received from the backend, null until the first one arrives
+    private static volatile DocumentList documents;
+    // refresh currently waiting for the backend, so concurrent refreshes share it
+    private static final AtomicReference<CompletableFuture<DocumentList>> refreshing = new AtomicReference<>();
+    private static int refreshTaskId = -1;
+
+    private DocumentsUtil() {
+    }
+
+    /**
+     * Gets the document list. A cached list is returned right away, even if it is expired, in which case
+     * it is refreshed in the background. The backend is only waited for when there is no cached list yet.
+     *
+     * @return A CompletableFuture containing the document list, or null if it could not be retrieved.
+     */
+    public static CompletableFuture<DocumentList> getDocuments() {
+        DocumentList cached = documents;
+        if (cached == null) {
+            return refresh();
+        }
+
+        long ttl = BattistaAiSpigot.getSettings().documents().ttlMillis();
+        if (cached.isExpired(System.currentTimeMillis(), ttl)) {
+            refresh();
+        }
+        return CompletableFuture.completedFuture(cached);
+    }
+
+    /**
+     * Requests the document list to the backend, unless a request is already waiting for it.
+     * The cached list is kept if the request fails.
+     *
+     * @return A CompletableFuture containing the new document list, or the cached one if the request failed.
+     */
+    public static CompletableFuture<DocumentList> refresh() {
+        CompletableFuture<DocumentList> refresh = new CompletableFuture<>();
+        CompletableFuture<DocumentList> inFlight = refreshing.compareAndExchange(null, refresh);
+        if (inFlight != null) {
+            return inFlight;
+        }
+
+        DebugUtil.trace(DebugCategory.HTTP, () -> "Refreshing the Battista document list");
+        DocumentList previous = documents;
+        HttpUtil.fetchDocumentList(previous).whenComplete((list, throwable) -> {
+            if (list != null) {
+                documents = list;
+            }
+            refreshing.set(null);
+            refresh.complete(list != null ? list : previous);
+        });
+        return refresh;
+    }
+
+    /**
+     * Starts the task refreshing the document list in the background, so players always get a recent list from the cache.
+     */
+    public static void startRefreshTask() {
+        var documentSettings = BattistaAiSpigot.getSettings().documents();
+        if (!documentSettings.backgroundRefresh()) {
+            return;
+        }
+        long interval = Math.max(20L, documentSettings.ttlMillis() / 50L);
+        refreshTaskId = Bukkit.getScheduler().runTaskTimerAsynchronously(BattistaAiSpigot.getInstance(),
+                DocumentsUtil::refresh, 0L, interval).getTaskId();
+    }
+
+    /**
+     * Stops the background refresh task and drops the cached list, the backend may have changed.
+     */
+    public static void stopRefreshTask() {
+        if (refreshTaskId != -1) {
+            Bukkit.getScheduler().cancelTask(refreshTaskId);
+            refreshTaskId = -1;
+        }
+        documents = null;
+    }
+}
@@ -0,0 +1,141 @@
+package org.itsmanu.battistaAiSpigot.utils;
+
+import org.itsmanu.battistaAiSpigot.dto.Settings;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class HedgeUtil {
+
+    // recent answer latencies, the adaptive hedge delay is their 95th percentile
+    private static final int LATENCY_SAMPLES = 256;
+    private static final int MIN_LATENCY_SAMPLES = 20;
+    // the budget is kept in thousandths of a hedge, and can't grow past a small burst
+    private static final long BUDGET_PER_HEDGE = 1000;
+    private static final long MAX_BUDGET = 10 * BUDGET_PER_HEDGE;
+
+    private static final long[] latencies = new long[LATENCY_SAMPLES];
+    private static int nextLatency = 0;
+    private static int recordedLatencies = 0;
+    private static long percentile95 = -1;
+
+    private static final AtomicLong budget = new AtomicLong();
+    private static final AtomicLong sentHedges = new AtomicLong();
+    private static final AtomicLong wonHedges = new AtomicLong();
+
+    private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "Battista-Hedge-Timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        // answers usually arrive before the hedge delay, don't keep their cancelled timers around
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    private HedgeUtil() {
+    }
+
+    /**
+     * Schedules a hedged request, sent if the request is still waiting for its answer after the hedge delay.
+     * Every request adds a fraction of a hedge to the budget, so hedges never exceed the configured share of
+     * the requests, and the scheduled hedge is cancelled as soon as the request completes.
+     *
+     * @param hedging The hedging settings.
+     * @param future  The future of the request.
+     * @param hedge   The hedged request to send.
+     */
+    public static void schedule(Settings.Hedging hedging, CompletableFuture<String> future, Runnable hedge) {
+        if (!hedging.enabled()) {
+            return;
+        }
+        deposit(hedging.maxExtraLoad() * BUDGET_PER_HEDGE / 100);
+
+        long delay = hedging.delayMillis() > 0 ? hedging.delayMillis() : getPercentile95();
+        if (delay < 0) {
+            // not enough answers yet to know what a slow one looks like
+            return;
+        }
+
+        ScheduledFuture<?> scheduled = timer.schedule(() -> {
+            if (future.isDone() || !withdraw()) {
+                return;
+            }
+            sentHedges.incrementAndGet();
+            hedge.run();
+        }, delay, TimeUnit.MILLISECONDS);
+        future.whenComplete((answer, throwable) -> scheduled.cancel(false));
+    }
+
+    /**
+     * Records the latency of a successful answer, for the adaptive hedge delay.
+     *
+     * @param latency The time the backend took to answer, in milliseconds.
+     */
+    public static void recordLatency(long latency) {
+        synchronized (latencies) {
+            latencies[nextLatency] = latency;
+            nextLatency = (nextLatency + 1) % LATENCY_SAMPLES;
+            if (recordedLatencies < LATENCY_SAMPLES) {
+                recordedLatencies++;
+            }
+            // recomputed lazily, on the next hedge
+            percentile95 = -1;
+        }
+    }
+
+    /**
+     * Records that a hedged request answered before the original one.
+     */
+    public static void recordWin() {
+        wonHedges.incrementAndGet();
+    }
+
+    /**
+     * Gets the 95th percentile of the recent answer latencies.
+     *
+     * @return the 95th percentile in milliseconds, or -1 if too few answers were recorded
+     */
+    public static long getPercentile95() {
+        synchronized (latencies) {
+            if (recordedLatencies < MIN_LATENCY_SAMPLES) {
+                return -1;
+            }
+            if (percentile95 < 0) {
+                long[] sorted = Arrays.copyOf(latencies, recordedLatencies);
+                Arrays.sort(sorted);
+                percentile95 = sorted[(int) Math.ceil(sorted.length * 0.95) - 1];
+            }
+            return percentile95;
+        }
+    }
+
+    /**
+     * Stops the timer of the hedged requests, the pending ones are never sent.
+     */
+    public static void shutdown() {
+        timer.shutdownNow();
+    }
+
+    public static long getSentHedges() {
+        return sentHedges.get();
+    }
+
+    public static long getWonHedges() {
+        return wonHedges.get();
+    }
+
+    private static void deposit(long amount) {
+        budget.getAndUpdate(current -> Math.min(MAX_BUDGET, current + amount));
+    }
+
+    private static boolean withdraw() {
+        long previous = budget.getAndUpdate(current -> current >= BUDGET_PER_HEDGE ? current - BUDGET_PER_HEDGE : current);
+        return previous >= BUDGET_PER_HEDGE;
+    }
+}
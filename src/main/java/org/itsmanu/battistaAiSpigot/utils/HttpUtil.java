@@ -2,20 +2,51 @@ package org.itsmanu.battistaAiSpigot.utils;
 
 import com.google.gson.*;
 import okhttp3.*;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import okio.BufferedSource;
 import org.itsmanu.battistaAiSpigot.BattistaAiSpigot;
+import org.itsmanu.battistaAiSpigot.dto.Backend;
+import org.itsmanu.battistaAiSpigot.dto.DocumentList;
+import org.itsmanu.battistaAiSpigot.dto.Settings;
+import org.itsmanu.battistaAiSpigot.dto.enums.DebugCategory;
+import org.itsmanu.battistaAiSpigot.dto.enums.HttpProtocol;
+import org.itsmanu.battistaAiSpigot.dto.enums.MetricCounter;
+import org.itsmanu.battistaAiSpigot.dto.enums.MetricHistogram;
+import org.itsmanu.battistaAiSpigot.dto.enums.RequestPriority;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class HttpUtil {
 
     private static OkHttpClient httpClient;
+    // same connections as the http client, with a short timeout for health probes
+    private static OkHttpClient probeClient;
+    private static final int PROBE_TIMEOUT_SECONDS = 5;
+    // Requests currently waiting for the backend, by answer cache key
+    private static final ConcurrentHashMap<String, CompletableFuture<String>> inFlightRequests = new ConcurrentHashMap<>();
     private static final Gson gson = new Gson();
     private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static final String STREAM_ACCEPT = "text/event-stream, application/x-ndjson, application/json";
 
     private static final Logger logger = BattistaAiSpigot.getInstance().getLogger();
 
@@ -27,16 +58,73 @@ public class HttpUtil {
     }
 
     /**
-     * Initializes the HTTP client with timeout settings from the configuration.
+     * Initializes the HTTP client with timeout and connection settings from the configuration.
+     * Idle connections of the previous client are closed, requests still running on it are not affected.
      */
     public static void initializeHttpClient() {
-        int timeout = BattistaAiSpigot.getConfigs().getInt("endpoint.timeout", 30);
+        var endpoint = BattistaAiSpigot.getSettings().endpoint();
+        int timeout = endpoint.timeout();
+        var connections = endpoint.connections();
 
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(connections.maxPerHost());
+        dispatcher.setMaxRequests(Math.max(dispatcher.getMaxRequests(), connections.maxPerHost() * endpoint.backends().size()));
+
+        OkHttpClient previousClient = httpClient;
         httpClient = new OkHttpClient.Builder()
                 .connectTimeout(timeout, TimeUnit.SECONDS)
                 .writeTimeout(timeout, TimeUnit.SECONDS)
                 .readTimeout(timeout, TimeUnit.SECONDS)
+                .connectionPool(new ConnectionPool(connections.maxIdle(), connections.keepAliveSeconds(), TimeUnit.SECONDS))
+                .dispatcher(dispatcher)
+                .protocols(getProtocols(connections.protocol()))
+                .build();
+
+        probeClient = httpClient.newBuilder()
+                .callTimeout(Math.min(timeout, PROBE_TIMEOUT_SECONDS), TimeUnit.SECONDS)
                 .build();
+
+        if (previousClient != null) {
+            previousClient.connectionPool().evictAll();
+        }
+    }
+
+    private static List<Protocol> getProtocols(HttpProtocol protocol) {
+        return switch (protocol) {
+            case HTTP1 -> List.of(Protocol.HTTP_1_1);
+            case HTTP2 -> List.of(Protocol.HTTP_2, Protocol.HTTP_1_1);
+            case H2C -> List.of(Protocol.H2_PRIOR_KNOWLEDGE);
+        };
+    }
+
+    /**
+     * Opens connections to every backend in the background, so the first questions don't pay for the
+     * connection setup. Each connection is opened by a HEAD request to the answer endpoint, whatever
+     * the response is, the connection is then kept in the pool.
+     */
+    public static void prewarmConnections() {
+        var connections = BattistaAiSpigot.getSettings().endpoint().connections();
+        // a single HTTP/2 connection carries every request
+        int count = connections.protocol() == HttpProtocol.H2C ? Math.min(1, connections.prewarm()) : connections.prewarm();
+
+        for (Backend backend : BackendUtil.getBackends()) {
+            for (int i = 0; i < count; i++) {
+                Request request = new Request.Builder().url(backend.getAnswerUrl()).head().build();
+                probeClient.newCall(request).enqueue(new Callback() {
+                    @Override
+                    public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                        DebugUtil.trace(DebugCategory.HTTP, () -> "Battista could not prewarm a connection to "
+                                + backend.getAnswerUrl() + ": " + e.getMessage());
+                    }
+
+                    @Override
+                    public void onResponse(@NotNull Call call, @NotNull Response response) {
+                        response.close();
+                        DebugUtil.trace(DebugCategory.HTTP, () -> "Battista prewarmed a connection to " + backend.getAnswerUrl());
+                    }
+                });
+            }
+        }
     }
 
     /**
@@ -46,41 +134,220 @@ public class HttpUtil {
      * @return A CompletableFuture containing the AI's response.
      */
     public static CompletableFuture<String> askAI(String question) {
-        String endpointUrl = BattistaAiSpigot.getConfigs().getString("endpoint.answer-url", "http://localhost:8000/v2/answer");
-        return coordinateRequest(question, endpointUrl);
+        return askAI(question, RequestPriority.HIGH, null, null);
     }
 
     /**
-     * Retrieves a list of documents from the AI endpoint asynchronously.
+     * Sends a question to the AI endpoint asynchronously.
+     * Recently answered questions are served from the answer cache without contacting the backend,
+     * and questions identical to one that is already waiting for the backend join that request.
+     *
+     * When streaming is enabled and the backend streams the answer, completed sentences are handed to
+     * the partial answer consumer while the answer is generated, on the HTTP thread.
+     * Answers served from the cache or from a joined request are never streamed.
+     *
+     * Questions sent to the backend go through the request queue, and wait there when the backend is busy.
      *
-     * @return A CompletableFuture containing the list of documents as a JSON string.
+     * @param question              The question to send.
+     * @param priority              The priority of the question in the request queue.
+     * @param partialAnswerConsumer The consumer of completed sentences, or null to only receive the whole answer.
+     * @param queuePositionConsumer The consumer of the position in the request queue, or null. Only called if the question has to wait.
+     * @return A CompletableFuture containing the AI's whole response.
      */
-    public static CompletableFuture<String> getDocuments() {
-        String endpointUrl = BattistaAiSpigot.getConfigs().getString("endpoint.list-url", "http://localhost:8000/v2/list_documents");
-        return coordinateRequest("", endpointUrl);
+    public static CompletableFuture<String> askAI(String question, RequestPriority priority, Consumer<String> partialAnswerConsumer,
+                                                  IntConsumer queuePositionConsumer) {
+        // the whole request uses the same settings snapshot, even if a reload happens meanwhile
+        Settings settings = BattistaAiSpigot.getSettings();
+        String cacheKey = CacheUtil.buildKey(question, settings.sourceFilter().folder());
+
+        String cachedAnswer = CacheUtil.get(cacheKey);
+        if (cachedAnswer != null) {
+            DebugUtil.trace(DebugCategory.HTTP, () -> "Battista answer cache hit for: " + question);
+            return CompletableFuture.completedFuture(cachedAnswer);
+        }
+
+        // Fail fast while the backend is down, instead of waiting for the timeout
+        if (CircuitBreakerUtil.isOpen()) {
+            DebugUtil.trace(DebugCategory.HTTP, () -> "Battista circuit open, failing fast for: " + question);
+            return CompletableFuture.completedFuture(getServiceUnavailableMessage(settings));
+        }
+
+        // Join an identical request that is already waiting for the backend
+        CompletableFuture<String> request = new CompletableFuture<>();
+        CompletableFuture<String> inFlight = inFlightRequests.putIfAbsent(cacheKey, request);
+        if (inFlight != null) {
+            DebugUtil.trace(DebugCategory.HTTP, () -> "Battista joined in-flight request for: " + question);
+            return inFlight.thenApply(Function.identity());
+        }
+
+        RequestQueueUtil.submit(priority,
+                () -> coordinateRequest(settings, question, cacheKey, partialAnswerConsumer),
+                queuePositionConsumer
+        ).whenComplete((answer, throwable) -> {
+            inFlightRequests.remove(cacheKey, request);
+            if (throwable != null) {
+                request.completeExceptionally(throwable);
+            } else {
+                request.complete(answer);
+            }
+        });
+
+        // every caller gets its own stage, so they can't interfere with each other
+        return request.thenApply(Function.identity());
     }
 
     /**
-     * Coordinates the request to the specified URL with the given question asynchronously.
+     * Retrieves the list of documents from the AI endpoint asynchronously.
+     * When the previous list has an entity tag, the backend can confirm it is unchanged with a 304 response,
+     * without sending the list again.
      *
+     * @param previous The previous document list, or null if there is none.
+     * @return A CompletableFuture containing the document list, or null if it could not be retrieved.
+     */
+    public static CompletableFuture<DocumentList> fetchDocumentList(DocumentList previous) {
+        Settings settings = BattistaAiSpigot.getSettings();
+        CompletableFuture<DocumentList> future = new CompletableFuture<>();
+        long permit = CircuitBreakerUtil.acquirePermit();
+        if (permit == CircuitBreakerUtil.REJECTED) {
+            future.complete(null);
+            return future;
+        }
+
+        Backend backend = BackendUtil.select();
+        String jsonString = PayloadUtil.prepareJsonPayload("", false, settings.sourceFilter());
+        Request.Builder requestBuilder = buildHttpRequest(backend.getListUrl(), jsonString, false).newBuilder();
+        if (previous != null && previous.etag() != null) {
+            requestBuilder.header("If-None-Match", previous.etag());
+        }
+        DebugUtil.trace(DebugCategory.HTTP, () -> "Requesting Battista document list from: " + backend.getListUrl());
+
+        long startedAt = System.currentTimeMillis();
+        backend.onRequestStarted();
+        httpClient.newCall(requestBuilder.build()).enqueue(new Callback() {
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                long latency = System.currentTimeMillis() - startedAt;
+                BackendUtil.recordOutcome(backend, true, latency);
+                CircuitBreakerUtil.recordOutcome(permit, true, latency);
+                logger.log(Level.WARNING, "Battista document list request failed: " + e.getMessage(), e);
+                future.complete(null);
+            }
+
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response response) {
+                boolean failed = response.code() >= 500;
+                long latency = System.currentTimeMillis() - startedAt;
+                BackendUtil.recordOutcome(backend, failed, latency);
+                CircuitBreakerUtil.recordOutcome(permit, failed, latency);
+                long now = System.currentTimeMillis();
+                try (response) {
+                    if (response.code() == 304 && previous != null) {
+                        DebugUtil.trace(DebugCategory.HTTP, () -> "Battista document list not modified");
+                        future.complete(previous.confirmedAt(now));
+                        return;
+                    }
+                    if (!response.isSuccessful() || response.body() == null) {
+                        logger.warning("Invalid Battista document list response. Status code: " + response.code());
+                        future.complete(null);
+                        return;
+                    }
+                    future.complete(readDocumentList(response.body().source(), response.header("ETag"),
+                            settings.endpoint().maxDocumentListLength(), previous, now));
+                } catch (IOException | IllegalStateException e) {
+                    logger.warning("Invalid Battista document list response body: " + e.getMessage());
+                    future.complete(null);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Checks if a backend is healthy, by requesting its document list with a short timeout.
+     * The probe bypasses the request queue and the circuit breaker.
+     *
+     * @param listUrl The list endpoint of the backend.
+     * @return A CompletableFuture containing true if the backend answered successfully, false otherwise.
+     */
+    public static CompletableFuture<Boolean> probeBackend(String listUrl) {
+        Settings settings = BattistaAiSpigot.getSettings();
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        String jsonString = PayloadUtil.prepareJsonPayload("", false, settings.sourceFilter());
+        Request request = buildHttpRequest(listUrl, jsonString, false);
+        probeClient.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                future.complete(false);
+            }
+
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response response) {
+                try (response) {
+                    future.complete(response.isSuccessful());
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Coordinates the request with the given question asynchronously, on the backend picked by the load balancer.
+     *
+     * @param settings The settings snapshot the request is made with.
      * @param question The question to send in the request.
-     * @param url      The endpoint URL to send the request to.
+     * @param cacheKey The answer cache key to store the response under, or null if the response must not be cached.
+     * @param partialAnswerConsumer The consumer of streamed sentences, or null if the response must not be streamed.
      * @return A CompletableFuture containing the response from the server.
      */
-    private static CompletableFuture<String> coordinateRequest(String question, String url) {
+    private static CompletableFuture<String> coordinateRequest(Settings settings, String question, String cacheKey,
+                                                               Consumer<String> partialAnswerConsumer) {
         CompletableFuture<String> future = new CompletableFuture<>();
 
+        // the circuit may have opened while the request was queued, and only a few trial requests pass while half open
+        long permit = CircuitBreakerUtil.acquirePermit();
+        if (permit == CircuitBreakerUtil.REJECTED) {
+            future.complete(getServiceUnavailableMessage(settings));
+            return future;
+        }
+
+        Backend backend = BackendUtil.select();
+        String url = backend.getAnswerUrl();
+
+        boolean sent = false;
         try {
-            String jsonString = prepareJsonPayload(question);
-            Request request = buildHttpRequest(url, jsonString);
+            boolean streaming = partialAnswerConsumer != null && settings.endpoint().streaming();
+            String jsonString = PayloadUtil.prepareJsonPayload(question, streaming, settings.sourceFilter());
+            Request request = buildHttpRequest(url, jsonString, streaming);
 
-            ChatUtil.sendDebug("Sending Battista HTTP request to: " + url);
-            ChatUtil.sendDebug("Battista Payload: " + jsonString);
+            DebugUtil.trace(DebugCategory.HTTP, () -> "Sending Battista HTTP request to: " + url);
+            DebugUtil.trace(DebugCategory.HTTP, () -> "Battista Payload: " + jsonString);
 
-            executeHttpRequest(request, future);
+            // attempts that may still answer, the request only fails when all of them failed
+            AtomicInteger pendingAttempts = new AtomicInteger(1);
+            executeHttpRequest(settings, backend, request, future, cacheKey, streaming ? partialAnswerConsumer : null,
+                    pendingAttempts, permit, false);
+            sent = true;
+
+            // streamed answers are already being delivered sentence by sentence, so only buffered answers are hedged
+            if (!streaming) {
+                HedgeUtil.schedule(settings.hedging(), future, () -> {
+                    if (pendingAttempts.getAndUpdate(attempts -> attempts > 0 ? attempts + 1 : attempts) == 0) {
+                        return;
+                    }
+                    Backend hedgeBackend = BackendUtil.selectOther(backend);
+                    DebugUtil.trace(DebugCategory.HTTP, () -> "Sending hedged Battista HTTP request to: " + hedgeBackend.getAnswerUrl());
+                    Request hedgeRequest = buildHttpRequest(hedgeBackend.getAnswerUrl(), jsonString, false);
+                    executeHttpRequest(settings, hedgeBackend, hedgeRequest, future, cacheKey, null, pendingAttempts, permit, true);
+                });
+            }
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Error preparing the Battista HTTP request", e);
-            String message = BattistaAiSpigot.getConfigs().getString("messages.internal_error", "Internal Error");
+            if (!sent) {
+                // the request never reached the backend, its outcome will never be recorded
+                CircuitBreakerUtil.release(permit);
+            }
+            String message = settings.getMessage("messages.internal_error", "Internal Error");
             future.complete(message);
         }
 
@@ -92,59 +359,116 @@ public class HttpUtil {
      *
      * @param url         The endpoint URL to send the request to.
      * @param jsonPayload The JSON payload to include in the request body.
+     * @param streaming   Whether a streamed response should be requested.
      * @return A configured Request object ready to be executed.
      */
-    private static Request buildHttpRequest(String url, String jsonPayload) {
+    private static Request buildHttpRequest(String url, String jsonPayload, boolean streaming) {
         return new Request.Builder()
                 .url(url)
                 .post(RequestBody.create(jsonPayload, JSON))
                 .addHeader("Content-Type", "application/json")
+                .addHeader("Accept", streaming ? STREAM_ACCEPT : "application/json")
                 .build();
     }
 
     /**
      * Executes an HTTP request asynchronously and handles the response or failure.
      *
-     * @param request The HTTP request to execute.
-     * @param future  The CompletableFuture to complete with the response or error message.
+     * @param settings The settings snapshot the request is made with.
+     * @param backend  The backend the request is sent to.
+     * @param request  The HTTP request to execute.
+     * @param future   The CompletableFuture to complete with the response or error message.
+     * @param cacheKey The answer cache key to store a successful response under, or null to skip caching.
+     * @param partialAnswerConsumer The consumer of streamed sentences, or null if the response is not streamed.
+     * @param pendingAttempts The number of attempts of the same request that may still answer.
+     * @param permit   The circuit breaker permit of the request.
+     * @param hedge    Whether this attempt is a hedged duplicate of the original request.
      */
-    private static void executeHttpRequest(Request request, CompletableFuture<String> future) {
-        httpClient.newCall(request).enqueue(new Callback() {
+    private static void executeHttpRequest(Settings settings, Backend backend, Request request, CompletableFuture<String> future,
+                                           String cacheKey, Consumer<String> partialAnswerConsumer,
+                                           AtomicInteger pendingAttempts, long permit, boolean hedge) {
+        long startedAt = System.currentTimeMillis();
+        backend.onRequestStarted();
+        Call httpCall = httpClient.newCall(request);
+        // the first attempt to answer wins, the other one is cancelled
+        future.whenComplete((answer, throwable) -> httpCall.cancel());
+
+        httpCall.enqueue(new Callback() {
             @Override
             public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                long latency = System.currentTimeMillis() - startedAt;
+                if (call.isCanceled()) {
+                    // lost the race against another attempt, not a backend failure
+                    backend.onRequestCancelled(latency);
+                    if (!hedge) {
+                        // the original attempt holds the breaker permit, it took at least this long without failing
+                        CircuitBreakerUtil.recordOutcome(permit, false, latency);
+                    }
+                    return;
+                }
+                BackendUtil.recordOutcome(backend, true, latency);
+                if (!hedge) {
+                    CircuitBreakerUtil.recordOutcome(permit, true, latency);
+                }
+                MetricsUtil.record(MetricHistogram.REQUEST_LATENCY, latency);
+                // read, connect and call timeouts all surface as an interrupted IO exception
+                MetricsUtil.increment(e instanceof InterruptedIOException ? MetricCounter.REQUESTS_TIMED_OUT : MetricCounter.REQUESTS_FAILED);
                 logger.log(Level.WARNING, "Battista HTTP request failed: " + e.getMessage(), e);
-                String message = BattistaAiSpigot.getConfigs().getString("messages.cant_process", "Can't process request");
-                future.complete(message);
+                String message = settings.getMessage("messages.cant_process", "Can't process request");
+                completeFailedAttempt(future, pendingAttempts, message);
             }
 
             @Override
             public void onResponse(@NotNull Call call, @NotNull Response response) throws IOException {
+                // only server errors count as failures, a client error is not a sign of an unhealthy backend
+                boolean failed = response.code() >= 500;
+                long latency = System.currentTimeMillis() - startedAt;
+                BackendUtil.recordOutcome(backend, failed, latency);
+                // hedges never took a permit from the breaker, only the original attempt reports to it
+                if (!hedge) {
+                    CircuitBreakerUtil.recordOutcome(permit, failed, latency);
+                }
+                MetricsUtil.record(MetricHistogram.REQUEST_LATENCY, latency);
                 try (response) {
                     if (!response.isSuccessful() || response.body() == null) {
+                        MetricsUtil.increment(MetricCounter.REQUESTS_FAILED);
                         logger.warning("Invalid Battista HTTP response. Status code: " + response.code());
-                        String message = BattistaAiSpigot.getConfigs().getString("messages.cant_process", "Service unavailable, Error: ");
-                        future.complete(message + response.code());
+                        String message = settings.getMessage("messages.cant_process", "Service unavailable, Error: ");
+                        completeFailedAttempt(future, pendingAttempts, message + response.code());
                         return;
                     }
+                    MetricsUtil.increment(MetricCounter.REQUESTS_SUCCEEDED);
+                    if (partialAnswerConsumer == null) {
+                        HedgeUtil.recordLatency(latency);
+                    }
 
-                    String responseBody = response.body().string();
-                    ChatUtil.sendDebug("Battista HTTP response received: " + responseBody);
-
-                    if (responseBody == null || responseBody.trim().isEmpty()) {
-                        future.complete("");
+                    // Streamed answers are read as they are generated, anything else falls back to the buffered body
+                    if (partialAnswerConsumer != null && isStreamedResponse(response.body().contentType())) {
+                        readStreamedResponse(settings, response.body().source(), future, cacheKey, partialAnswerConsumer);
                         return;
                     }
 
+                    String aiResponse;
                     try {
-                        JsonElement jsonElement = gson.fromJson(responseBody, JsonElement.class);
-                        String aiResponse = extractResponse(jsonElement, responseBody);
-                        future.complete(aiResponse);
-                    } catch (JsonSyntaxException e) {
-                        // If JSON parsing fails, complete with original response
-                        future.complete(responseBody);
+                        aiResponse = PayloadUtil.readResponse(response.body().source(), settings.endpoint().maxAnswerLength());
+                    } catch (IOException | IllegalStateException e) {
+                        // truncated, malformed or too large body
+                        logger.warning("Invalid Battista HTTP response body: " + e.getMessage());
+                        String message = settings.getMessage("messages.cant_process", "Can't process request");
+                        completeFailedAttempt(future, pendingAttempts, message);
+                        return;
                     } catch (Exception e) {
                         // For any other unexpected errors, complete exceptionally
                         future.completeExceptionally(e);
+                        return;
+                    }
+                    DebugUtil.trace(DebugCategory.HTTP, () -> "Battista HTTP response received: " + aiResponse);
+
+                    if (cacheKey != null) {
+                        CacheUtil.put(cacheKey, aiResponse);
+                    }
+                    if (future.complete(aiResponse) && hedge) {
+                        HedgeUtil.recordWin();
                     }
                 }
             }
@@ -152,70 +476,271 @@ public class HttpUtil {
     }
 
     /**
-     * Extracts the AI's response from a JSON element.
-     * If the element is a JSON object, it looks for a "response" field.
-     * If the element is a JSON array, it concatenates all "path" fields from the objects in the array.
-     * If the element is neither, it returns the fallback string.
+     * Completes the request with an error message once every attempt failed, an attempt that may still
+     * answer gets its chance first.
+     *
+     * @param future          The CompletableFuture of the request.
+     * @param pendingAttempts The number of attempts of the request that may still answer.
+     * @param message         The error message.
+     */
+    private static void completeFailedAttempt(CompletableFuture<String> future, AtomicInteger pendingAttempts, String message) {
+        if (pendingAttempts.decrementAndGet() <= 0) {
+            future.complete(message);
+        }
+    }
+
+    public static int getConnectionCount() {
+        return httpClient.connectionPool().connectionCount();
+    }
+
+    public static int getIdleConnectionCount() {
+        return httpClient.connectionPool().idleConnectionCount();
+    }
+
+    public static int getRunningCalls() {
+        return httpClient.dispatcher().runningCallsCount();
+    }
+
+    public static int getQueuedCalls() {
+        return httpClient.dispatcher().queuedCallsCount();
+    }
+
+    private static String getServiceUnavailableMessage(Settings settings) {
+        return settings.getMessage("messages.service_unavailable", "The AI service is currently unavailable.");
+    }
+
+    /**
+     * Checks if the response content type is one of the supported streaming formats.
+     *
+     * @param contentType The content type of the response body.
+     * @return true if the body is made of server-sent events or newline delimited JSON, false otherwise.
+     */
+    private static boolean isStreamedResponse(MediaType contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String subtype = contentType.subtype();
+        return subtype.equals("event-stream") || subtype.equals("x-ndjson") || subtype.equals("jsonl");
+    }
+
+    /**
+     * Reads a streamed answer line by line as it arrives, handing completed sentences to the consumer.
+     * Both server-sent events ("data: ..." lines, joined with a line break within an event) and newline
+     * delimited JSON are supported, every chunk may be a JSON object with a "response" field or plain text.
+     * The future is always completed, even if the stream is malformed.
      *
-     * @param jsonElement The JSON element to extract the response from.
-     * @param fallback    The fallback string to return if extraction fails.
-     * @return The extracted response or the fallback string.
+     * @param settings              The settings snapshot the request is made with.
+     * @param source                The response body source.
+     * @param future                The CompletableFuture to complete with the whole answer.
+     * @param cacheKey              The answer cache key to store the whole answer under, or null to skip caching.
+     * @param partialAnswerConsumer The consumer of completed sentences.
      */
-    private static String extractResponse(JsonElement jsonElement, String fallback) {
-        if (jsonElement == null) {
-            return fallback;
-        }
-
-        if (jsonElement.isJsonObject()) {
-            var response = jsonElement.getAsJsonObject();
-            return response.has("response") ? response.get("response").getAsString() : fallback;
-        } else if (jsonElement.isJsonArray()) {
-            var responseArray = jsonElement.getAsJsonArray();
-            StringBuilder result = new StringBuilder("Idexed documents:\n");
-            for (JsonElement element : responseArray) {
-                if (element.isJsonObject()) {
-                    JsonObject document = element.getAsJsonObject();
-                    if (document.has("path")) {
-                        JsonElement pathElement = document.get("path");
-                        if (!pathElement.isJsonNull()) {
-                            result.append(pathElement.getAsString()).append("\n");
-                        }
+    private static void readStreamedResponse(Settings settings, BufferedSource source, CompletableFuture<String> future,
+                                             String cacheKey, Consumer<String> partialAnswerConsumer) {
+        StringBuilder answer = new StringBuilder();
+        StringBuilder pending = new StringBuilder();
+        int maxLength = settings.endpoint().maxAnswerLength();
+        // data lines of the server-sent event being received, null between events
+        StringBuilder event = null;
+
+        try {
+            boolean last = false;
+            String line;
+            while (!last && (line = source.readUtf8Line()) != null) {
+                if (line.startsWith("data:")) {
+                    // server-sent event, a single leading space is part of the field separator
+                    String data = line.startsWith("data: ") ? line.substring(6) : line.substring(5);
+                    if (event == null) {
+                        event = new StringBuilder(data);
+                    } else {
+                        event.append('\n').append(data);
+                    }
+                } else if (line.isEmpty()) {
+                    // end of a server-sent event
+                    if (event != null) {
+                        last = appendChunk(event.toString(), false, answer, pending, maxLength);
+                        event = null;
                     }
+                } else if (!line.startsWith(":") && !line.startsWith("event:") && !line.startsWith("id:")
+                        && !line.startsWith("retry:")) {
+                    // newline delimited chunk, a plain text line keeps its line break
+                    last = appendChunk(line, true, answer, pending, maxLength);
                 }
+                flushCompletedSentences(pending, partialAnswerConsumer, false);
             }
-            return result.toString();
-        } else {
-            return fallback;
+            // an event the stream ended without terminating
+            if (!last && event != null) {
+                appendChunk(event.toString(), false, answer, pending, maxLength);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "Battista streamed response interrupted: " + e.getMessage(), e);
+            if (answer.isEmpty()) {
+                String message = settings.getMessage("messages.cant_process", "Can't process request");
+                future.complete(message);
+                return;
+            }
+            // deliver what was received so far, but don't cache a truncated answer
+            flushRemaining(pending, partialAnswerConsumer);
+            future.complete(answer.toString());
+            return;
         }
+
+        flushRemaining(pending, partialAnswerConsumer);
+        DebugUtil.trace(DebugCategory.HTTP, () -> "Battista streamed response received: " + answer);
+
+        if (cacheKey != null) {
+            CacheUtil.put(cacheKey, answer.toString());
+        }
+        future.complete(answer.toString());
     }
 
     /**
-     * Prepares the JSON payload for the AI request.
+     * Appends the text of a streamed chunk to the answer. Only chunks that look like JSON (an object or a string)
+     * are parsed, anything else is plain text and used as it is, leading spaces included.
      *
-     * @param question The question to include in the payload.
-     * @return A JSON string representing the request payload.
+     * @param payload   The chunk.
+     * @param lineBreak Whether a plain text chunk ends with a line break, as a line of newline delimited text does.
+     * @param answer    The whole answer received so far.
+     * @param pending   The text not yet handed to the consumer.
+     * @param maxLength The maximum length of the answer.
+     * @return true if the chunk is the last one, because it says so, it's the end marker or the answer is too long.
      */
-    private static String prepareJsonPayload(String question) {
-        // add user request
-        JsonObject requestBody = new JsonObject();
-        if (!question.isEmpty()) {
-            requestBody.addProperty("prompt", question);
+    private static boolean appendChunk(String payload, boolean lineBreak, StringBuilder answer, StringBuilder pending,
+                                       int maxLength) {
+        if (payload.equals("[DONE]")) {
+            return true;
+        }
+
+        boolean last = false;
+        String token = lineBreak ? payload + "\n" : payload;
+        if (payload.startsWith("{") || payload.startsWith("\"")) {
+            try {
+                JsonElement chunk = gson.fromJson(payload, JsonElement.class);
+                if (chunk != null && chunk.isJsonObject()) {
+                    JsonObject chunkObject = chunk.getAsJsonObject();
+                    JsonElement response = chunkObject.get("response");
+                    token = response != null && response.isJsonPrimitive() ? response.getAsString() : "";
+                    JsonElement done = chunkObject.get("done");
+                    last = done != null && done.isJsonPrimitive() && done.getAsJsonPrimitive().isBoolean()
+                            && done.getAsBoolean();
+                } else if (chunk != null && chunk.isJsonPrimitive()) {
+                    token = chunk.getAsString();
+                }
+            } catch (JsonParseException e) {
+                // plain text that happens to start like JSON, use it as it is
+            }
+        }
+
+        if (answer.length() + token.length() > maxLength) {
+            // keep what fits, and stop reading an oversized answer
+            token = token.substring(0, maxLength - answer.length());
+            last = true;
         }
+        answer.append(token);
+        pending.append(token);
+        return last;
+    }
+
+    private static void flushRemaining(StringBuilder pending, Consumer<String> consumer) {
+        try {
+            flushCompletedSentences(pending, consumer, true);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Battista could not deliver the end of a streamed answer", e);
+        }
+    }
 
-        String folderFilter = BattistaAiSpigot.getConfigs().getString("source-filter.folder", "");
-        // add trailing slash if missing
-        if (!folderFilter.isEmpty()) {
-            if (!folderFilter.endsWith("/")) {
-                folderFilter += "/";
+    /**
+     * Hands every completed sentence in the pending text to the consumer, and removes it from the pending text.
+     * A sentence is completed by a line break, or by a full stop, exclamation or question mark followed by a space.
+     *
+     * @param pending  The text received and not yet handed to the consumer.
+     * @param consumer The consumer of completed sentences.
+     * @param flushAll Whether the remaining text should be handed over even if the sentence is not completed.
+     */
+    private static void flushCompletedSentences(StringBuilder pending, Consumer<String> consumer, boolean flushAll) {
+        int boundary = flushAll ? pending.length() : 0;
+        for (int i = boundary; i < pending.length(); i++) {
+            char c = pending.charAt(i);
+            boolean sentenceEnd = (c == '.' || c == '!' || c == '?')
+                    && i + 1 < pending.length() && Character.isWhitespace(pending.charAt(i + 1));
+            if (c == '\n' || sentenceEnd) {
+                boundary = i + 1;
             }
-            // add folder filter
-            String filter = String.format("contains(path, `%s`)", folderFilter);
-            requestBody.addProperty("filters", filter);
-            requestBody.addProperty("metadata_filter", filter);
         }
 
+        if (boundary == 0) {
+            return;
+        }
 
-        return gson.toJson(requestBody);
+        String sentences = pending.substring(0, boundary).trim();
+        pending.delete(0, boundary);
+        if (!sentences.isEmpty()) {
+            consumer.accept(sentences);
+        }
+    }
+
+    /**
+     * Reads the "path" fields of the documents in a JSON array, the other fields are skipped.
+     * The paths are hashed while they are read, so an unchanged list keeps the previous snapshot.
+     *
+     * @param source    The response body source.
+     * @param etag      The entity tag sent by the backend, or null.
+     * @param maxLength The maximum total length of the paths, the remaining documents are left out.
+     * @param previous  The previous snapshot, or null.
+     * @param now       The current timestamp in milliseconds since epoch.
+     * @return The document list.
+     */
+    private static DocumentList readDocumentList(BufferedSource source, String etag, int maxLength, DocumentList previous,
+                                                 long now) throws IOException {
+        MessageDigest digest = createDigest();
+        List<String> paths = new ArrayList<>();
+        int length = 0;
+        int omitted = 0;
+
+        Reader reader = new InputStreamReader(source.inputStream(), StandardCharsets.UTF_8);
+        try (JsonReader json = new JsonReader(reader)) {
+            json.beginArray();
+            while (json.hasNext()) {
+                if (json.peek() != JsonToken.BEGIN_OBJECT) {
+                    json.skipValue();
+                    continue;
+                }
+
+                json.beginObject();
+                while (json.hasNext()) {
+                    if (!json.nextName().equals("path") || json.peek() != JsonToken.STRING) {
+                        json.skipValue();
+                        continue;
+                    }
+                    String path = json.nextString();
+                    digest.update(path.getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) '\n');
+                    if (omitted == 0 && length + path.length() <= maxLength) {
+                        paths.add(path);
+                        length += path.length();
+                    } else {
+                        omitted++;
+                    }
+                }
+                json.endObject();
+            }
+        }
+
+        String hash = HexFormat.of().formatHex(digest.digest());
+        if (previous != null && hash.equals(previous.hash())) {
+            DebugUtil.trace(DebugCategory.HTTP, () -> "Battista document list unchanged");
+            return new DocumentList(previous.paths(), previous.omitted(), etag, hash, now);
+        }
+        return new DocumentList(List.copyOf(paths), omitted, etag, hash, now);
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java runtime supports SHA-256
+            throw new IllegalStateException(e);
+        }
     }
 
 }
@@ -0,0 +1,144 @@
+package org.itsmanu.battistaAiSpigot.utils;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.itsmanu.battistaAiSpigot.BattistaAiSpigot;
+import org.itsmanu.battistaAiSpigot.dto.TimingWheel;
+import org.itsmanu.battistaAiSpigot.dto.enums.DebugCategory;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interactive sessions, opened by /ask without arguments: the next chat message of the player is their question.
+ * <p>
+ * Sessions are opened by commands on the main thread and claimed by the async chat threads, a session is claimed
+ * by exactly one message. Timeouts don't get a task each: every session is scheduled on a timing wheel, advanced
+ * once a second by a single task.
+ */
+public class InteractiveSessionUtil {
+
+    // one second ticks, the wheel covers a little more than an hour, longer timeouts are scheduled again
+    private static final int WHEEL_TICKS = 4096;
+    private static final long WHEEL_TICK_MILLIS = 1000;
+
+    // open sessions, with the timestamp they time out at
+    private static final ConcurrentHashMap<UUID, Long> sessions = new ConcurrentHashMap<>();
+    // guarded by itself, commands may be dispatched off the main thread by other plugins
+    private static final TimingWheel timeouts = new TimingWheel(WHEEL_TICKS, WHEEL_TICK_MILLIS, System.currentTimeMillis());
+
+    private static int timeoutTaskId = -1;
+
+    private InteractiveSessionUtil() {
+    }
+
+    /**
+     * Starts the task that times out the sessions, running every second on the main thread.
+     */
+    public static void startTimeoutTask() {
+        if (timeoutTaskId != -1) {
+            return;
+        }
+        timeoutTaskId = Bukkit.getScheduler().runTaskTimer(BattistaAiSpigot.getInstance(),
+                InteractiveSessionUtil::expireSessions, 20L, 20L).getTaskId();
+    }
+
+    /**
+     * Stops the timeout task and closes every session.
+     */
+    public static void stopTimeoutTask() {
+        if (timeoutTaskId != -1) {
+            Bukkit.getScheduler().cancelTask(timeoutTaskId);
+            timeoutTaskId = -1;
+        }
+        sessions.clear();
+        synchronized (timeouts) {
+            timeouts.clear();
+        }
+    }
+
+    /**
+     * Opens an interactive session for a player, unless one is already open.
+     *
+     * @param playerId The UUID of the player
+     * @return true if the session was opened, false if the player already had one
+     */
+    public static boolean open(UUID playerId) {
+        long deadline = System.currentTimeMillis() + BattistaAiSpigot.getSettings().limits().interactiveTimeout() * 1000L;
+        if (sessions.putIfAbsent(playerId, deadline) != null) {
+            return false;
+        }
+        synchronized (timeouts) {
+            timeouts.schedule(playerId.getMostSignificantBits(), playerId.getLeastSignificantBits(), deadline);
+        }
+        return true;
+    }
+
+    /**
+     * Checks if a player has an open session. The session may be claimed or time out right after.
+     *
+     * @param playerId The UUID of the player
+     * @return true if the player has an open session, false otherwise
+     */
+    public static boolean isOpen(UUID playerId) {
+        return sessions.containsKey(playerId);
+    }
+
+    /**
+     * Claims the session of a player for a chat message, closing it.
+     * When several messages race for the same session, only one of them gets it.
+     *
+     * @param playerId The UUID of the player
+     * @return true if the session was claimed, false if the player had no open session
+     */
+    public static boolean claim(UUID playerId) {
+        return sessions.remove(playerId) != null;
+    }
+
+    /**
+     * Closes the session of a player, if any, without a timeout message.
+     *
+     * @param playerId The UUID of the player
+     */
+    public static void close(UUID playerId) {
+        sessions.remove(playerId);
+    }
+
+    public static int getOpenSessions() {
+        return sessions.size();
+    }
+
+    /**
+     * Closes the sessions that timed out, and lets their players know.
+     * A session claimed meanwhile is left alone, even if the player opened a new one.
+     */
+    private static void expireSessions() {
+        long now = System.currentTimeMillis();
+        synchronized (timeouts) {
+            timeouts.advance(now, (mostSignificantBits, leastSignificantBits) -> {
+                UUID playerId = new UUID(mostSignificantBits, leastSignificantBits);
+                Long deadline = sessions.get(playerId);
+                if (deadline == null) {
+                    return;
+                }
+                if (deadline > now) {
+                    // a new session, or a timeout beyond the wheel horizon
+                    timeouts.schedule(mostSignificantBits, leastSignificantBits, deadline);
+                } else if (sessions.remove(playerId, deadline)) {
+                    notifyTimeout(playerId);
+                }
+            });
+        }
+    }
+
+    private static void notifyTimeout(UUID playerId) {
+        Player player = Bukkit.getPlayer(playerId);
+        if (player == null || !player.isOnline()) {
+            return;
+        }
+        DebugUtil.trace(DebugCategory.CHAT, () -> "Interactive session of " + player.getName() + " timed out");
+        var alt_message = "Question timeout! use **/ask** if you need me again.";
+        var message = ChatUtil.formatConfigMessage("messages.ask_inteactive_timeout", alt_message);
+        player.sendMessage(message);
+    }
+}
@@ -0,0 +1,38 @@
+package org.itsmanu.battistaAiSpigot.utils;
+
+import java.util.UUID;
+
+/**
+ * Where the rate limit state lives, asked by {@link LimitsUtil} before every question.
+ */
+public interface LimiterStore {
+
+    /**
+     * Checks the global limits and consumes one request if none of them is exceeded.
+     *
+     * @param now The current timestamp in milliseconds since epoch
+     * @return true if the request was accepted, false if a global limit was exceeded
+     */
+    boolean tryAcquireGlobal(long now);
+
+    /**
+     * Checks the limits of a player and consumes one request if none of them is exceeded.
+     *
+     * @param playerId The UUID of the player
+     * @param now      The current timestamp in milliseconds since epoch
+     * @return true if the request was accepted, false if a player limit was exceeded
+     */
+    boolean tryAcquirePlayer(UUID playerId, long now);
+
+    /**
+     * Drops the state that no longer affects any decision, called periodically.
+     *
+     * @param now The current timestamp in milliseconds since epoch
+     */
+    void removeExpired(long now);
+
+    /**
+     * Releases the resources of the store and drops its state, called on disable and before switching store.
+     */
+    void close();
+}
@@ -0,0 +1,416 @@
+package org.itsmanu.battistaAiSpigot.utils;
+
+import org.itsmanu.battistaAiSpigot.BattistaAiSpigot;
+import org.itsmanu.battistaAiSpigot.dto.GcraLimiter;
+import org.itsmanu.battistaAiSpigot.dto.PlayerLimiterTable;
+import org.itsmanu.battistaAiSpigot.dto.enums.TimeWindow;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Saves the rate limit state to the plugin data folder, so hourly and daily quotas survive restarts.
+ * <p>
+ * The file is a compact binary snapshot: a header with the global limiter state, then one fixed size record
+ * per player (UUID and the theoretical arrival time of each window). Players whose limits are fully replenished
+ * are left out. Snapshots are written by a background thread next to the file and then moved over it, so a crash
+ * never leaves a partial file behind.
+ * <p>
+ * Between two snapshots, every accepted request is appended to a journal (UUID and timestamp, the nil UUID for the
+ * global limits), which is replayed on top of the last snapshot on load. A server that crashes before the next
+ * snapshot comes back with the quotas it had, and each snapshot drops the journal records it already covers.
+ */
+public class LimitsSnapshotUtil {
+
+    private static final String FILE_NAME = "limits.dat";
+    // "BTLS", Battista limits snapshot
+    private static final int MAGIC = 0x42544C53;
+    private static final int VERSION = 1;
+    private static final TimeWindow[] WINDOWS = TimeWindow.values();
+    // magic, version, save timestamp and the global windows
+    private static final int HEADER_BYTES = 4 + 4 + 8 + WINDOWS.length * 8;
+    // UUID and the player windows
+    private static final int RECORD_BYTES = 16 + WINDOWS.length * 8;
+    private static final String JOURNAL_FILE_NAME = "limits.journal";
+    // UUID and the time the request was accepted
+    private static final int JOURNAL_RECORD_BYTES = 16 + 8;
+    // records this much older than a snapshot are still replayed, a request accepted while the snapshot was
+    // taken may be replayed twice, but is never missed
+    private static final long JOURNAL_OVERLAP_MILLIS = 1000;
+
+    private static final Logger logger = BattistaAiSpigot.getInstance().getLogger();
+
+    private static ScheduledThreadPoolExecutor writer;
+    private static ScheduledFuture<?> saveTask;
+
+    private static final Object journalLock = new Object();
+    // open while persistence is enabled, both guarded by the journal lock
+    private static FileChannel journal;
+    private static final ByteBuffer journalRecord = ByteBuffer.allocate(JOURNAL_RECORD_BYTES);
+
+    private LimitsSnapshotUtil() {
+    }
+
+    /**
+     * Loads the saved rate limit state, if persistence is enabled: the last snapshot, then the requests accepted
+     * after it. A corrupted snapshot is ignored, and the limits are rebuilt from the journal alone.
+     */
+    public static void load() {
+        if (!BattistaAiSpigot.getSettings().limits().persist()) {
+            return;
+        }
+        long startedAt = System.nanoTime();
+        long savedAt = loadSnapshot();
+        int replayed = replayJournal(savedAt);
+        if (replayed > 0) {
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+            logger.info("Battista replayed " + replayed + " rate limited requests from the journal in " + elapsed + "ms");
+        }
+    }
+
+    /**
+     * Loads the last snapshot.
+     *
+     * @return the time the snapshot was saved at, or 0 if there is no valid snapshot
+     */
+    private static long loadSnapshot() {
+        long startedAt = System.nanoTime();
+        long now = System.currentTimeMillis();
+
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(getFile(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE || (size - HEADER_BYTES) % RECORD_BYTES != 0) {
+                logger.warning("Battista rate limit snapshot has an invalid size, rate limits start from scratch");
+                return 0;
+            }
+            buffer = readFully(channel, size);
+            if (buffer == null) {
+                logger.warning("Battista rate limit snapshot was truncated while reading, rate limits start from scratch");
+                return 0;
+            }
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not read the Battista rate limit snapshot", e);
+            return 0;
+        }
+
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            logger.warning("Battista rate limit snapshot has an unknown format, rate limits start from scratch");
+            return 0;
+        }
+        long savedAt = buffer.getLong();
+        readWindows(buffer, LimitsUtil.getLocalStore().getGlobalLimits().getLimiter());
+
+        int restored = 0;
+        while (buffer.remaining() >= RECORD_BYTES) {
+            UUID playerId = new UUID(buffer.getLong(), buffer.getLong());
+            long minute = buffer.getLong();
+            long hour = buffer.getLong();
+            long day = buffer.getLong();
+            // replenished while the server was down
+            if (minute <= now && hour <= now && day <= now) {
+                continue;
+            }
+            LimitsUtil.getLocalStore().restorePlayerLimits(playerId, minute, hour, day);
+            restored++;
+        }
+
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+        logger.info("Battista restored the rate limits of " + restored + " players in " + elapsed + "ms");
+        return savedAt;
+    }
+
+    /**
+     * Replays the requests accepted since a snapshot was saved. A record cut short by a crash is ignored.
+     *
+     * @param savedAt The time the snapshot was saved at, older records are already part of it
+     * @return the number of replayed requests
+     */
+    private static int replayJournal(long savedAt) {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(getJournalFile(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                logger.warning("Battista rate limit journal is too large, it is ignored");
+                return 0;
+            }
+            buffer = readFully(channel, size);
+            if (buffer == null) {
+                return 0;
+            }
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not read the Battista rate limit journal", e);
+            return 0;
+        }
+
+        int replayed = 0;
+        while (buffer.remaining() >= JOURNAL_RECORD_BYTES) {
+            long mostSignificantBits = buffer.getLong();
+            long leastSignificantBits = buffer.getLong();
+            long acceptedAt = buffer.getLong();
+            if (acceptedAt < savedAt - JOURNAL_OVERLAP_MILLIS) {
+                continue;
+            }
+            LimitsUtil.getLocalStore().replayRequest(mostSignificantBits, leastSignificantBits, acceptedAt);
+            replayed++;
+        }
+        return replayed;
+    }
+
+    /**
+     * Reads a whole file in one go rather than mapping it, a mapping would keep the file open until it's garbage
+     * collected, and on Windows the next save could not be moved over it.
+     *
+     * @return the content of the file ready to be read, or null if the file was truncated while reading
+     */
+    private static ByteBuffer readFully(FileChannel channel, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // keep reading until the whole file is in the buffer
+        }
+        if (buffer.hasRemaining()) {
+            return null;
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Appends an accepted request to the journal, if persistence is enabled. The record reaches the operating
+     * system right away, so it survives a crash of the server process.
+     *
+     * @param mostSignificantBits  The most significant bits of the player UUID, 0 for the global limits
+     * @param leastSignificantBits The least significant bits of the player UUID, 0 for the global limits
+     * @param acceptedAt           The time the request was accepted, in milliseconds since epoch
+     */
+    public static void journalRequest(long mostSignificantBits, long leastSignificantBits, long acceptedAt) {
+        synchronized (journalLock) {
+            if (journal == null) {
+                return;
+            }
+            journalRecord.clear();
+            journalRecord.putLong(mostSignificantBits).putLong(leastSignificantBits).putLong(acceptedAt).flip();
+            try {
+                while (journalRecord.hasRemaining()) {
+                    journal.write(journalRecord);
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not write the Battista rate limit journal, only snapshots are saved", e);
+                closeJournal();
+            }
+        }
+    }
+
+    /**
+     * Starts saving the rate limit state periodically on a background thread, if persistence is enabled.
+     */
+    public static synchronized void startSaveTask() {
+        var limits = BattistaAiSpigot.getSettings().limits();
+        if (!limits.persist() || writer != null) {
+            return;
+        }
+        writer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "Battista-Limits-Writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.setRemoveOnCancelPolicy(true);
+        openJournal();
+        scheduleSaves(limits.saveIntervalSeconds());
+    }
+
+    /**
+     * Applies the persistence settings after a reload, without waiting for any write: the periodic saves are
+     * scheduled again with the new interval, or stop after a last snapshot in the background if persistence
+     * was disabled.
+     */
+    public static synchronized void restartSaveTask() {
+        var limits = BattistaAiSpigot.getSettings().limits();
+        if (writer == null) {
+            startSaveTask();
+            return;
+        }
+        if (!limits.persist()) {
+            closeJournal();
+            writer.execute(LimitsSnapshotUtil::save);
+            writer.shutdown();
+            writer = null;
+            saveTask = null;
+            return;
+        }
+        saveTask.cancel(false);
+        scheduleSaves(limits.saveIntervalSeconds());
+    }
+
+    private static void scheduleSaves(int intervalSeconds) {
+        saveTask = writer.scheduleWithFixedDelay(LimitsSnapshotUtil::save, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the periodic saves and writes a last snapshot, waiting a few seconds for it to complete.
+     */
+    public static synchronized void stopSaveTask() {
+        if (writer == null) {
+            return;
+        }
+        writer.execute(LimitsSnapshotUtil::save);
+        // the pending periodic save is dropped by the shutdown, the last snapshot queued above still runs
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warning("Battista rate limit snapshot took too long to save");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeJournal();
+        writer = null;
+        saveTask = null;
+    }
+
+    /**
+     * Writes a snapshot of the rate limit state.
+     */
+    private static void save() {
+        long now = System.currentTimeMillis();
+        Path file = getFile();
+        Path temporaryFile = file.resolveSibling(FILE_NAME + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile), 65536))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeLong(now);
+                writeWindows(output, LimitsUtil.getLocalStore().getGlobalLimits().getLimiter());
+
+                // copied at once, so the table is not held while writing
+                long[] players = LimitsUtil.getLocalStore().exportPlayerLimits();
+                for (int i = 0; i < players.length; i += PlayerLimiterTable.SLOT_LONGS) {
+                    // UUID halves, then the minute, hour and day windows, the same layout as the file records
+                    if (players[i + 2] <= now && players[i + 3] <= now && players[i + 4] <= now) {
+                        continue;
+                    }
+                    for (int j = 0; j < PlayerLimiterTable.SLOT_LONGS; j++) {
+                        output.writeLong(players[i + j]);
+                    }
+                }
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // the journal is kept whole, it still holds every request since the last snapshot
+            logger.log(Level.WARNING, "Could not save the Battista rate limit snapshot", e);
+            return;
+        }
+        compactJournal(now);
+    }
+
+    /**
+     * Drops the journal records older than a saved snapshot. The journal is held meanwhile, which is short as it
+     * only holds the requests of one save interval.
+     *
+     * @param savedAt The time the snapshot was saved at
+     */
+    private static void compactJournal(long savedAt) {
+        synchronized (journalLock) {
+            if (journal == null) {
+                return;
+            }
+            Path file = getJournalFile();
+            Path temporaryFile = file.resolveSibling(JOURNAL_FILE_NAME + ".tmp");
+            try {
+                ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(file));
+                ByteBuffer kept = ByteBuffer.allocate(records.remaining());
+                while (records.remaining() >= JOURNAL_RECORD_BYTES) {
+                    int start = records.position();
+                    records.position(start + 16);
+                    if (records.getLong() >= savedAt - JOURNAL_OVERLAP_MILLIS) {
+                        kept.put(records.slice(start, JOURNAL_RECORD_BYTES));
+                    }
+                }
+                Files.write(temporaryFile, Arrays.copyOf(kept.array(), kept.position()));
+                // closed first, an open file can't be replaced on Windows
+                journal.close();
+                journal = null;
+                Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not compact the Battista rate limit journal", e);
+            }
+            openJournal();
+        }
+    }
+
+    /**
+     * Opens the journal for appending. A record cut short by a crash is dropped first, so the next records
+     * are not misaligned.
+     */
+    private static void openJournal() {
+        synchronized (journalLock) {
+            if (journal != null) {
+                return;
+            }
+            try {
+                Files.createDirectories(getJournalFile().getParent());
+                journal = FileChannel.open(getJournalFile(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+                long partial = journal.size() % JOURNAL_RECORD_BYTES;
+                if (partial != 0) {
+                    journal.truncate(journal.size() - partial);
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not open the Battista rate limit journal, only snapshots are saved", e);
+            }
+        }
+    }
+
+    private static void closeJournal() {
+        synchronized (journalLock) {
+            if (journal == null) {
+                return;
+            }
+            try {
+                journal.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not close the Battista rate limit journal", e);
+            }
+            journal = null;
+        }
+    }
+
+    private static void writeWindows(DataOutputStream output, GcraLimiter limiter) throws IOException {
+        for (TimeWindow window : WINDOWS) {
+            output.writeLong(limiter.getTheoreticalArrival(window));
+        }
+    }
+
+    private static void readWindows(ByteBuffer buffer, GcraLimiter limiter) {
+        for (TimeWindow window : WINDOWS) {
+            limiter.restore(window, buffer.getLong());
+        }
+    }
+
+    private static Path getFile() {
+        return BattistaAiSpigot.getInstance().getDataFolder().toPath().resolve(FILE_NAME);
+    }
+
+    private static Path getJournalFile() {
+        return BattistaAiSpigot.getInstance().getDataFolder().toPath().resolve(JOURNAL_FILE_NAME);
+    }
+}
@@ -1,22 +1,20 @@
 package org.itsmanu.battistaAiSpigot.utils;
 
 import org.bukkit.Bukkit;
-import org.bukkit.entity.Player;
-import org.bukkit.scheduler.BukkitTask;
 import org.itsmanu.battistaAiSpigot.BattistaAiSpigot;
-import org.itsmanu.battistaAiSpigot.dto.GlobalLimits;
-import org.itsmanu.battistaAiSpigot.dto.PlayerLimits;
+import org.itsmanu.battistaAiSpigot.dto.enums.DebugCategory;
+import org.itsmanu.battistaAiSpigot.dto.enums.MetricCounter;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class LimitsUtil {
 
-    private static final Map<UUID, BukkitTask> pendingInteractiveQuestions = new HashMap<>();
-    private static final ConcurrentHashMap<UUID, PlayerLimits> playerLimits = new ConcurrentHashMap<>();
-    private static final GlobalLimits globalLimits = new GlobalLimits();
+    // limits of this server, also used when the shared store can't be reached
+    private static final LocalLimiterStore localStore = new LocalLimiterStore();
+    private static volatile LimiterStore store = localStore;
+    // rate limited players, with the timestamp their chat messages are considered again
+    private static final ConcurrentHashMap<UUID, Long> rejectedUntil = new ConcurrentHashMap<>();
 
     private static int cleanupTaskId = -1;
 
@@ -24,16 +22,17 @@ public class LimitsUtil {
     }
 
     /**
-     * Starts a cleanup task that runs every 5 minutes to remove expired player entries.
-     * The task runs asynchronously and checks each player's limits to see if they've expired.
-     * Expired entries are removed from the playerLimits map.
+     * Starts a cleanup task that runs every minute to remove expired player entries.
+     * The task runs asynchronously and lets the limiter store drop the entries that expired,
+     * the local store only visits the entries due since the previous run.
      */
     public static void startCleanupTask() {
-        // Run every 5 minutes (6000 ticks) asynchronously
+        // Run every minute (1200 ticks) asynchronously
         cleanupTaskId = Bukkit.getScheduler().runTaskTimerAsynchronously(BattistaAiSpigot.getInstance(), () -> {
             long now = System.currentTimeMillis();
-            playerLimits.entrySet().removeIf(entry -> entry.getValue().isExpired(now));
-        }, 6000L, 6000L).getTaskId();
+            store.removeExpired(now);
+            rejectedUntil.values().removeIf(until -> until <= now);
+        }, 1200L, 1200L).getTaskId();
     }
 
     /**
@@ -46,39 +45,66 @@ public class LimitsUtil {
             Bukkit.getScheduler().cancelTask(cleanupTaskId);
             cleanupTaskId = -1;
         }
-        playerLimits.clear();
+        localStore.close();
+        rejectedUntil.clear();
     }
 
     /**
-     * Checks if a player has pending questions.
-     *
-     * @param player The player to check
-     * @return true if the player has pending questions, false otherwise
+     * Selects the limiter store from the settings, the limits of this server or the limits shared with the network.
+     * A previous shared store gives back its unused requests and is closed in the background.
+     */
+    public static void initializeStore() {
+        var shared = BattistaAiSpigot.getSettings().limits().shared();
+        LimiterStore previous = store;
+        store = shared.enabled() ? new RedisLimiterStore(shared, localStore) : localStore;
+        if (previous != localStore) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Closes the shared limiter store, if any, and goes back to the limits of this server.
+     * Called on disable, it waits a few seconds for the unused shared requests to be given back.
      */
-    public static boolean hasPendingQuestions(Player player) {
-        return pendingInteractiveQuestions.containsKey(player.getUniqueId());
+    public static void closeStore() {
+        LimiterStore previous = store;
+        store = localStore;
+        if (previous != localStore) {
+            previous.close();
+            if (previous instanceof RedisLimiterStore shared) {
+                shared.awaitClosed(5000);
+            }
+        }
     }
 
     /**
-     * Adds a pending question for a player with an associated timeout task.
+     * Puts a rate limited player on cooldown, their chat messages are dropped early until the cooldown ends.
      *
-     * @param player The player to add the pending question for
-     * @param timeoutTask The BukkitTask that will handle the timeout for this pending question
+     * @param playerId The UUID of the rate limited player
      */
-    public static void addPendingQuestions(Player player, BukkitTask timeoutTask) {
-        pendingInteractiveQuestions.put(player.getUniqueId(), timeoutTask);
+    public static void markRejected(UUID playerId) {
+        long cooldown = BattistaAiSpigot.getSettings().limits().rejectionCooldown() * 1000L;
+        if (cooldown > 0) {
+            rejectedUntil.put(playerId, System.currentTimeMillis() + cooldown);
+        }
     }
 
     /**
-     * Removes a pending question for a player and cancels its associated timeout task.
+     * Checks if a player is on cooldown after being rate limited.
      *
-     * @param player The player whose pending question should be removed
+     * @param playerId The UUID of the player to check
+     * @return true if the player was rate limited a moment ago, false otherwise
      */
-    public static void removePendingQuestions(Player player) {
-        var task = pendingInteractiveQuestions.remove(player.getUniqueId());
-        if (task != null) {
-            task.cancel();
+    public static boolean isRecentlyRejected(UUID playerId) {
+        Long until = rejectedUntil.get(playerId);
+        if (until == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() < until) {
+            return true;
         }
+        rejectedUntil.remove(playerId, until);
+        return false;
     }
 
     /**
@@ -88,7 +114,12 @@ public class LimitsUtil {
      */
     public static boolean isGlobalRateLimitExceeded() {
         long now = System.currentTimeMillis();
-        return globalLimits.isRateLimitExceeded(now);
+        boolean exceeded = !store.tryAcquireGlobal(now);
+        if (exceeded) {
+            MetricsUtil.increment(MetricCounter.GLOBAL_RATE_LIMITED);
+            DebugUtil.trace(DebugCategory.LIMITS, () -> "Global rate limit exceeded");
+        }
+        return exceeded;
     }
 
     /**
@@ -99,8 +130,25 @@ public class LimitsUtil {
      */
     public static boolean isPlayerRateLimitExceeded(UUID playerId) {
         long now = System.currentTimeMillis();
-        PlayerLimits limits = playerLimits.computeIfAbsent(playerId, k -> new PlayerLimits());
-        return limits.isRateLimitExceeded(now);
+        boolean exceeded = !store.tryAcquirePlayer(playerId, now);
+        if (exceeded) {
+            MetricsUtil.increment(MetricCounter.PLAYER_RATE_LIMITED);
+            DebugUtil.trace(DebugCategory.LIMITS, () -> "Player rate limit exceeded for " + playerId);
+        }
+        return exceeded;
+    }
+
+    /**
+     * Gets the limits of this server, the ones saved to disk.
+     *
+     * @return the local limiter store
+     */
+    public static LocalLimiterStore getLocalStore() {
+        return localStore;
+    }
+
+    public static LimiterStore getStore() {
+        return store;
     }
 
 }
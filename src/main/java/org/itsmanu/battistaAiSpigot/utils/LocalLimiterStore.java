@@ -0,0 +1,106 @@
+package org.itsmanu.battistaAiSpigot.utils;
+
+import org.itsmanu.battistaAiSpigot.BattistaAiSpigot;
+import org.itsmanu.battistaAiSpigot.dto.GlobalLimits;
+import org.itsmanu.battistaAiSpigot.dto.PlayerLimiterTable;
+import org.itsmanu.battistaAiSpigot.dto.Settings;
+import org.itsmanu.battistaAiSpigot.dto.enums.MetricCounter;
+
+import java.util.UUID;
+
+/**
+ * Rate limit state kept in the memory of this server, the default store.
+ */
+public class LocalLimiterStore implements LimiterStore {
+
+    private final PlayerLimiterTable playerLimits = new PlayerLimiterTable();
+    private final GlobalLimits globalLimits = new GlobalLimits();
+
+    @Override
+    public boolean tryAcquireGlobal(long now) {
+        if (globalLimits.isRateLimitExceeded(now)) {
+            return false;
+        }
+        LimitsSnapshotUtil.journalRequest(0, 0, now);
+        return true;
+    }
+
+    @Override
+    public boolean tryAcquirePlayer(UUID playerId, long now) {
+        if (!acquirePlayer(playerId.getMostSignificantBits(), playerId.getLeastSignificantBits(), now)) {
+            return false;
+        }
+        LimitsSnapshotUtil.journalRequest(playerId.getMostSignificantBits(), playerId.getLeastSignificantBits(), now);
+        return true;
+    }
+
+    /**
+     * Applies a request accepted before a restart, read from the journal, without writing it again.
+     *
+     * @param mostSignificantBits  The most significant bits of the player UUID, 0 for the global limits
+     * @param leastSignificantBits The least significant bits of the player UUID, 0 for the global limits
+     * @param acceptedAt           The time the request was accepted, in milliseconds since epoch
+     */
+    public void replayRequest(long mostSignificantBits, long leastSignificantBits, long acceptedAt) {
+        if (mostSignificantBits == 0 && leastSignificantBits == 0) {
+            globalLimits.isRateLimitExceeded(acceptedAt);
+        } else {
+            acquirePlayer(mostSignificantBits, leastSignificantBits, acceptedAt);
+        }
+    }
+
+    private boolean acquirePlayer(long mostSignificantBits, long leastSignificantBits, long now) {
+        Settings.RateLimits limits = BattistaAiSpigot.getSettings().limits().player();
+        return playerLimits.tryAcquire(mostSignificantBits, leastSignificantBits, now,
+                limits.requestsPerMinute(), limits.requestsPerHour(), limits.requestsPerDay());
+    }
+
+    @Override
+    public void removeExpired(long now) {
+        MetricsUtil.add(MetricCounter.PLAYER_LIMITS_EXPIRED, playerLimits.removeExpired(now));
+    }
+
+    @Override
+    public void close() {
+        playerLimits.clear();
+    }
+
+    /**
+     * Copies the limits of every player currently tracked.
+     *
+     * @return {@link PlayerLimiterTable#SLOT_LONGS} longs per player: UUID halves, then minute, hour and day
+     * arrival times
+     */
+    public long[] exportPlayerLimits() {
+        return playerLimits.export();
+    }
+
+    /**
+     * Restores the limits of a player from a saved state.
+     *
+     * @param playerId The UUID of the player
+     * @param minute   The theoretical arrival time of the minute window
+     * @param hour     The theoretical arrival time of the hour window
+     * @param day      The theoretical arrival time of the day window
+     */
+    public void restorePlayerLimits(UUID playerId, long minute, long hour, long day) {
+        playerLimits.restore(playerId.getMostSignificantBits(), playerId.getLeastSignificantBits(), minute, hour, day);
+    }
+
+    public GlobalLimits getGlobalLimits() {
+        return globalLimits;
+    }
+
+    public int getTrackedPlayers() {
+        return playerLimits.size();
+    }
+
+    /**
+     * Gets the memory used by the limits of the players.
+     *
+     * @return the size of the player limits table, in bytes
+     */
+    public long getPlayerLimitsMemory() {
+        return playerLimits.getMemoryBytes();
+    }
+}
@@ -0,0 +1,148 @@
+package org.itsmanu.battistaAiSpigot.utils;
+
+import de.themoep.minedown.adventure.MineDown;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.TextReplacementConfig;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Configured messages parsed once into immutable components.
+ * <p>
+ * Built with the settings on enable and on reload, so fixed messages are never parsed again while sending them.
+ * The response prefix is parsed once as well, and dynamic messages are appended to it.
+ */
+public final class MessageTemplates {
+
+    private final Component prefix;
+    // formatting codes still active at the end of the prefix, they apply to the message following it
+    private final String prefixTrailingCodes;
+    private final Map<String, Component> messages;
+    private final Map<String, List<Component>> lines;
+    // messages missing from the configuration, built from their default on first use
+    private final Map<String, Component> defaults = new ConcurrentHashMap<>();
+
+    /**
+     * Parses the prefix and every configured message.
+     *
+     * @param prefix   The response prefix.
+     * @param messages The configured messages, by their full configuration path.
+     */
+    public MessageTemplates(String prefix, Map<String, String> messages) {
+        this.prefix = new MineDown(prefix).toComponent();
+        this.prefixTrailingCodes = trailingCodes(prefix);
+
+        Map<String, Component> parsedMessages = new HashMap<>();
+        Map<String, List<Component>> parsedLines = new HashMap<>();
+        for (Map.Entry<String, String> message : messages.entrySet()) {
+            parsedMessages.put(message.getKey(), format(message.getValue()));
+            parsedLines.put(message.getKey(), parseLines(message.getValue()));
+        }
+        this.messages = Map.copyOf(parsedMessages);
+        this.lines = Map.copyOf(parsedLines);
+    }
+
+    /**
+     * Retrieves a configured message with the prefix.
+     *
+     * @param path The full path of the message in the configuration (e.g. messages.processing).
+     * @param def  The default message to use if the path is not found.
+     * @return The prebuilt message component.
+     */
+    public Component get(String path, String def) {
+        Component message = messages.get(path);
+        if (message != null) {
+            return message;
+        }
+        return defaults.computeIfAbsent(path, key -> format(def));
+    }
+
+    /**
+     * Retrieves a configured message with the prefix, replacing its placeholders.
+     *
+     * @param path         The full path of the message in the configuration (e.g. messages.processing).
+     * @param def          The default message to use if the path is not found.
+     * @param placeholders Pairs of placeholder and value, e.g. "{position}", "3".
+     * @return The message component with the placeholders replaced.
+     */
+    public Component get(String path, String def, String... placeholders) {
+        Component message = get(path, def);
+        for (int i = 0; i + 1 < placeholders.length; i += 2) {
+            message = message.replaceText(TextReplacementConfig.builder()
+                    .matchLiteral(placeholders[i])
+                    .replacement(placeholders[i + 1])
+                    .build());
+        }
+        return message;
+    }
+
+    /**
+     * Retrieves a configured multi-line message without the prefix, one component per line.
+     *
+     * @param path The full path of the message in the configuration (e.g. messages.help).
+     * @param def  The default message to use if the path is not found.
+     * @return The prebuilt line components.
+     */
+    public List<Component> getLines(String path, String def) {
+        List<Component> messageLines = lines.get(path);
+        return messageLines != null ? messageLines : parseLines(def);
+    }
+
+    /**
+     * Formats a message with the prefix, only the message itself is parsed.
+     *
+     * @param message The raw message.
+     * @return The formatted message with the prefix.
+     */
+    public Component format(String message) {
+        return Component.textOfChildren(prefix, new MineDown(prefixTrailingCodes + message).toComponent());
+    }
+
+    /**
+     * Formats a message that continues a prefixed one, with the prefix formatting but without the prefix itself.
+     *
+     * @param message The raw message.
+     * @return The formatted message.
+     */
+    public Component formatContinuation(String message) {
+        return new MineDown(prefixTrailingCodes + message).toComponent();
+    }
+
+    private static List<Component> parseLines(String message) {
+        List<Component> parsed = new ArrayList<>();
+        for (String line : message.split("\n")) {
+            parsed.add(new MineDown(line).toComponent());
+        }
+        return List.copyOf(parsed);
+    }
+
+    /**
+     * Finds the legacy formatting codes still active at the end of a text, a color code resets
+     * the previous formatting like it does in Minecraft.
+     *
+     * @param text The text to scan.
+     * @return The active color and formatting codes, e.g. "&f&l".
+     */
+    private static String trailingCodes(String text) {
+        StringBuilder codes = new StringBuilder();
+        for (int i = 0; i + 1 < text.length(); i++) {
+            if (text.charAt(i) != '&') {
+                continue;
+            }
+            char code = Character.toLowerCase(text.charAt(i + 1));
+            if ((code >= '0' && code <= '9') || (code >= 'a' && code <= 'f')) {
+                codes.setLength(0);
+                codes.append('&').append(code);
+            } else if (code >= 'k' && code <= 'o') {
+                codes.append('&').append(code);
+            } else if (code == 'r') {
+                codes.setLength(0);
+            }
+        }
+        return codes.toString();
+    }
+}
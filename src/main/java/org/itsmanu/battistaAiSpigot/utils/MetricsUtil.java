@@ -0,0 +1,196 @@
+package org.itsmanu.battistaAiSpigot.utils;
+
+import org.bukkit.Bukkit;
+import org.itsmanu.battistaAiSpigot.BattistaAiSpigot;
+import org.itsmanu.battistaAiSpigot.dto.Backend;
+import org.itsmanu.battistaAiSpigot.dto.LatencyHistogram;
+import org.itsmanu.battistaAiSpigot.dto.enums.ChatFilterStage;
+import org.itsmanu.battistaAiSpigot.dto.enums.MetricCounter;
+import org.itsmanu.battistaAiSpigot.dto.enums.MetricHistogram;
+import org.itsmanu.battistaAiSpigot.listeners.ChatListener;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+
+public class MetricsUtil {
+
+    private static final AtomicLongArray counters = new AtomicLongArray(MetricCounter.values().length);
+    private static final LatencyHistogram[] histograms = new LatencyHistogram[MetricHistogram.values().length];
+
+    private static int exportTaskId = -1;
+
+    static {
+        for (MetricHistogram histogram : MetricHistogram.values()) {
+            histograms[histogram.ordinal()] = new LatencyHistogram();
+        }
+    }
+
+    private MetricsUtil() {
+    }
+
+    /**
+     * Increments a counter, without allocating nor locking.
+     *
+     * @param counter The counter to increment.
+     */
+    public static void increment(MetricCounter counter) {
+        counters.incrementAndGet(counter.ordinal());
+    }
+
+    /**
+     * Adds a value to a counter, without allocating nor locking.
+     *
+     * @param counter The counter to add to.
+     * @param delta   The value to add.
+     */
+    public static void add(MetricCounter counter, long delta) {
+        counters.addAndGet(counter.ordinal(), delta);
+    }
+
+    /**
+     * Records a value in a histogram, without allocating nor locking.
+     *
+     * @param histogram The histogram to record the value in.
+     * @param value     The value, in the unit of the histogram.
+     */
+    public static void record(MetricHistogram histogram, long value) {
+        histograms[histogram.ordinal()].record(value);
+    }
+
+    public static long get(MetricCounter counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    public static LatencyHistogram getHistogram(MetricHistogram histogram) {
+        return histograms[histogram.ordinal()];
+    }
+
+    /**
+     * Starts the task writing the metrics to a Prometheus text file in the plugin data folder, if enabled.
+     */
+    public static void startExportTask() {
+        var metrics = BattistaAiSpigot.getSettings().metrics();
+        if (!metrics.prometheusEnabled()) {
+            return;
+        }
+        Path file = BattistaAiSpigot.getInstance().getDataFolder().toPath().resolve(metrics.prometheusFile());
+        long interval = Math.max(1, metrics.exportIntervalSeconds()) * 20L;
+        exportTaskId = Bukkit.getScheduler().runTaskTimerAsynchronously(BattistaAiSpigot.getInstance(),
+                () -> writePrometheusFile(file), interval, interval).getTaskId();
+    }
+
+    /**
+     * Stops the Prometheus export task.
+     */
+    public static void stopExportTask() {
+        if (exportTaskId != -1) {
+            Bukkit.getScheduler().cancelTask(exportTaskId);
+            exportTaskId = -1;
+        }
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text format. The file is written next to the target and then moved
+     * over it, so a scraper never reads a partial file.
+     *
+     * @param file The file to write.
+     */
+    private static void writePrometheusFile(Path file) {
+        StringBuilder text = new StringBuilder(8192);
+
+        appendType(text, "battista_requests_total", "counter");
+        appendSample(text, "battista_requests_total", "outcome=\"success\"", get(MetricCounter.REQUESTS_SUCCEEDED));
+        appendSample(text, "battista_requests_total", "outcome=\"failure\"", get(MetricCounter.REQUESTS_FAILED));
+        appendSample(text, "battista_requests_total", "outcome=\"timeout\"", get(MetricCounter.REQUESTS_TIMED_OUT));
+
+        appendType(text, "battista_rate_limited_total", "counter");
+        appendSample(text, "battista_rate_limited_total", "level=\"global\"", get(MetricCounter.GLOBAL_RATE_LIMITED));
+        appendSample(text, "battista_rate_limited_total", "level=\"player\"", get(MetricCounter.PLAYER_RATE_LIMITED));
+        appendType(text, "battista_rate_limit_players", "gauge");
+        appendSample(text, "battista_rate_limit_players", null, LimitsUtil.getLocalStore().getTrackedPlayers());
+        appendType(text, "battista_rate_limit_players_expired_total", "counter");
+        appendSample(text, "battista_rate_limit_players_expired_total", null, get(MetricCounter.PLAYER_LIMITS_EXPIRED));
+
+        appendType(text, "battista_chat_messages_scanned_total", "counter");
+        appendSample(text, "battista_chat_messages_scanned_total", null, ChatListener.getScannedMessages());
+        appendType(text, "battista_chat_questions_detected_total", "counter");
+        appendSample(text, "battista_chat_questions_detected_total", null, ChatListener.getDetectedQuestions());
+        appendType(text, "battista_chat_questions_answered_total", "counter");
+        appendSample(text, "battista_chat_questions_answered_total", null, ChatListener.getAnsweredMessages());
+        appendType(text, "battista_chat_messages_dropped_total", "counter");
+        for (ChatFilterStage stage : ChatFilterStage.values()) {
+            appendSample(text, "battista_chat_messages_dropped_total", "stage=\"" + stage.name().toLowerCase() + "\"",
+                    ChatListener.getDroppedMessages(stage));
+        }
+
+        appendType(text, "battista_requests_in_flight", "gauge");
+        appendSample(text, "battista_requests_in_flight", null, RequestQueueUtil.getRunningRequests());
+        appendType(text, "battista_requests_queued", "gauge");
+        appendSample(text, "battista_requests_queued", null, RequestQueueUtil.getQueuedRequests());
+
+        for (MetricHistogram histogram : MetricHistogram.values()) {
+            appendType(text, histogram.getMetricName(), "histogram");
+            appendHistogram(text, histogram.getMetricName(), null, getHistogram(histogram));
+        }
+
+        String backendMetric = "battista_backend_latency_milliseconds";
+        appendType(text, backendMetric, "histogram");
+        for (Backend backend : BackendUtil.getBackends()) {
+            appendHistogram(text, backendMetric, "backend=\"" + escapeLabel(backend.getAnswerUrl()) + "\"", backend.getLatency());
+        }
+        appendType(text, "battista_backend_requests_in_flight", "gauge");
+        for (Backend backend : BackendUtil.getBackends()) {
+            appendSample(text, "battista_backend_requests_in_flight", "backend=\"" + escapeLabel(backend.getAnswerUrl()) + "\"",
+                    backend.getOutstandingRequests());
+        }
+
+        try {
+            Files.createDirectories(file.getParent());
+            Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(temporaryFile, text, StandardCharsets.UTF_8);
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            BattistaAiSpigot.getInstance().getLogger().log(Level.WARNING, "Could not write the Battista metrics file", e);
+        }
+    }
+
+    /**
+     * Appends a histogram as cumulative buckets, only the buckets holding values are written.
+     */
+    private static void appendHistogram(StringBuilder text, String name, String labels, LatencyHistogram histogram) {
+        String prefix = labels == null ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < histogram.getBucketCount() - 1; i++) {
+            long bucket = histogram.getBucket(i);
+            if (bucket == 0) {
+                continue;
+            }
+            cumulative += bucket;
+            appendSample(text, name + "_bucket", prefix + "le=\"" + LatencyHistogram.bucketUpperBound(i) + "\"", cumulative);
+        }
+        appendSample(text, name + "_bucket", prefix + "le=\"+Inf\"", histogram.getCount());
+        appendSample(text, name + "_sum", labels, histogram.getSum());
+        appendSample(text, name + "_count", labels, histogram.getCount());
+    }
+
+    private static void appendType(StringBuilder text, String name, String type) {
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void appendSample(StringBuilder text, String name, String labels, long value) {
+        text.append(name);
+        if (labels != null) {
+            text.append('{').append(labels).append('}');
+        }
+        text.append(' ').append(value).append('\n');
+    }
+
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
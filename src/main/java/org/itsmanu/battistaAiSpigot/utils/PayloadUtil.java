@@ -0,0 +1,156 @@
+package org.itsmanu.battistaAiSpigot.utils;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import okio.BufferedSource;
+import org.itsmanu.battistaAiSpigot.dto.Settings;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds the request payloads sent to the AI backend and reads its answers.
+ * Kept apart from the HTTP client, so it can be used without a running plugin.
+ */
+public class PayloadUtil {
+
+    private static final Gson gson = new Gson();
+
+    private PayloadUtil() {
+    }
+
+    /**
+     * Prepares the JSON payload for the AI request.
+     *
+     * @param question     The question to include in the payload.
+     * @param streaming    Whether the answer should be streamed by the backend.
+     * @param sourceFilter The knowledge source filter to apply.
+     * @return A JSON string representing the request payload.
+     */
+    public static String prepareJsonPayload(String question, boolean streaming, Settings.SourceFilter sourceFilter) {
+        // add user request
+        JsonObject requestBody = new JsonObject();
+        if (!question.isEmpty()) {
+            requestBody.addProperty("prompt", question);
+        }
+        if (streaming) {
+            requestBody.addProperty("stream", true);
+        }
+
+        // add folder filter
+        String filter = sourceFilter.filter();
+        if (filter != null) {
+            requestBody.addProperty("filters", filter);
+            requestBody.addProperty("metadata_filter", filter);
+        }
+
+        return gson.toJson(requestBody);
+    }
+
+    /**
+     * Reads the AI's response from a buffered response body, without materializing the body or a JSON tree.
+     * If the body is a JSON object, only its "response" field is read, the other fields are skipped.
+     * Any other body is used as plain text.
+     *
+     * @param source    The response body source.
+     * @param maxLength The maximum length of the answer, in characters.
+     * @return The extracted response.
+     * @throws IOException if the body can't be read, or an answer is larger than the maximum length.
+     */
+    public static String readResponse(BufferedSource source, int maxLength) throws IOException {
+        int first = peekFirstCharacter(source);
+        if (first == -1) {
+            return "";
+        }
+
+        Reader reader = new InputStreamReader(source.inputStream(), StandardCharsets.UTF_8);
+        Reader limitedReader = new LimitedReader(reader, maxLength);
+        if (first != '{' && first != '"') {
+            // plain text answer
+            StringBuilder text = new StringBuilder();
+            char[] chunk = new char[2048];
+            int read;
+            while ((read = limitedReader.read(chunk)) != -1) {
+                text.append(chunk, 0, read);
+            }
+            return text.toString();
+        }
+
+        try (JsonReader json = new JsonReader(limitedReader)) {
+            if (json.peek() == JsonToken.STRING) {
+                return json.nextString();
+            }
+
+            json.beginObject();
+            while (json.hasNext()) {
+                if (json.nextName().equals("response") && json.peek() == JsonToken.STRING) {
+                    return json.nextString();
+                }
+                json.skipValue();
+            }
+            throw new IOException("the response has no \"response\" field");
+        }
+    }
+
+    /**
+     * Finds the first character of the body that is not whitespace, without consuming it.
+     *
+     * @param source The response body source.
+     * @return The first character, or -1 if the body is empty or blank.
+     */
+    private static int peekFirstCharacter(BufferedSource source) throws IOException {
+        BufferedSource peek = source.peek();
+        while (peek.request(1)) {
+            byte b = peek.readByte();
+            if (!Character.isWhitespace(b)) {
+                return b;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reader failing as soon as more than a maximum number of characters is read, so an oversized answer
+     * is never fully loaded in memory.
+     */
+    private static final class LimitedReader extends FilterReader {
+
+        private final long maxLength;
+        private long readLength = 0;
+
+        private LimitedReader(Reader reader, long maxLength) {
+            super(reader);
+            this.maxLength = maxLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c != -1) {
+                count(1);
+            }
+            return c;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        private void count(int length) throws IOException {
+            readLength += length;
+            if (readLength > maxLength) {
+                throw new IOException("the response is larger than " + maxLength + " characters");
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package org.itsmanu.battistaAiSpigot.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Detects questions in chat messages.
+ * <p>
+ * Built once from the configured tags when the settings are loaded, a single pass over the message
+ * detects and strips every tag, collapses whitespace and finds the trailing question mark.
+ */
+public final class QuestionMatcher {
+
+    private final char[][] tags;
+    private final int longestTagLength;
+    // first characters of all the tags, in both cases, to skip tag comparisons on most characters
+    private final String tagStarts;
+
+    /**
+     * Result of a successful match.
+     *
+     * @param question The normalized question, with the tags removed.
+     * @param tagged   Whether the question was detected by a tag, rather than by its question mark.
+     */
+    public record Match(String question, boolean tagged) {
+    }
+
+    /**
+     * Creates a matcher for the given tags, blank tags are ignored.
+     *
+     * @param tags The tags to look for, compared ignoring case.
+     */
+    public QuestionMatcher(List<String> tags) {
+        List<char[]> validTags = new ArrayList<>();
+        StringBuilder starts = new StringBuilder();
+        for (String tag : tags) {
+            String trimmed = tag == null ? "" : tag.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            validTags.add(trimmed.toCharArray());
+            starts.append(Character.toLowerCase(trimmed.charAt(0))).append(Character.toUpperCase(trimmed.charAt(0)));
+        }
+        // longer tags first, so "@AIHelper" is not matched as "@AI"
+        validTags.sort(Comparator.comparingInt((char[] tag) -> tag.length).reversed());
+        this.tags = validTags.toArray(new char[0][]);
+        this.tagStarts = starts.toString();
+        this.longestTagLength = this.tags.length > 0 ? this.tags[0].length : 0;
+    }
+
+    /**
+     * Gets the length of the longest tag.
+     *
+     * @return the length of the longest tag, 0 if there are no tags
+     */
+    public int getLongestTagLength() {
+        return longestTagLength;
+    }
+
+    /**
+     * Looks for a question in a chat message.
+     *
+     * @param message        The chat message.
+     * @param taggingEnabled Whether questions can be detected by tag.
+     * @param autoDetect     Whether questions can be detected by a trailing question mark.
+     * @return The detected question, or null if the message is not a question.
+     */
+    public Match match(String message, boolean taggingEnabled, boolean autoDetect) {
+        if (!taggingEnabled && !autoDetect) {
+            return null;
+        }
+
+        StringBuilder question = new StringBuilder(message.length());
+        boolean tagged = false;
+        boolean pendingSpace = false;
+        char last = 0;
+
+        int i = 0;
+        while (i < message.length()) {
+            char c = message.charAt(i);
+
+            if (taggingEnabled && tagStarts.indexOf(c) >= 0) {
+                int tagLength = tagLengthAt(message, i);
+                if (tagLength > 0) {
+                    // the tag is dropped, and acts as a word separator
+                    tagged = true;
+                    pendingSpace = true;
+                    i += tagLength;
+                    continue;
+                }
+            }
+
+            if (Character.isWhitespace(c)) {
+                pendingSpace = true;
+            } else {
+                if (pendingSpace && !question.isEmpty()) {
+                    question.append(' ');
+                }
+                pendingSpace = false;
+                question.append(c);
+                last = c;
+            }
+            i++;
+        }
+
+        if (tagged) {
+            return new Match(question.toString(), true);
+        }
+        if (autoDetect && last == '?') {
+            return new Match(question.toString(), false);
+        }
+        return null;
+    }
+
+    /**
+     * Collapses every whitespace sequence into a single space, and removes leading and trailing whitespace.
+     *
+     * @param text The text to normalize.
+     * @return The normalized text.
+     */
+    public static String normalize(CharSequence text) {
+        StringBuilder normalized = new StringBuilder(text.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = true;
+                continue;
+            }
+            if (pendingSpace && !normalized.isEmpty()) {
+                normalized.append(' ');
+            }
+            pendingSpace = false;
+            normalized.append(c);
+        }
+        return normalized.toString();
+    }
+
+    private int tagLengthAt(String message, int offset) {
+        for (char[] tag : tags) {
+            if (regionMatches(message, offset, tag)) {
+                return tag.length;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean regionMatches(String message, int offset, char[] tag) {
+        if (message.length() - offset < tag.length) {
+            return false;
+        }
+        for (int i = 0; i < tag.length; i++) {
+            char a = message.charAt(offset + i);
+            char b = tag[i];
+            if (a != b && Character.toLowerCase(a) != Character.toLowerCase(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
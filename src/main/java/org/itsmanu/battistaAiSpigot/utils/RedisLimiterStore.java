@@ -0,0 +1,439 @@
+package org.itsmanu.battistaAiSpigot.utils;
+
+import org.itsmanu.battistaAiSpigot.BattistaAiSpigot;
+import org.itsmanu.battistaAiSpigot.dto.GcraLimiter;
+import org.itsmanu.battistaAiSpigot.dto.Settings;
+import org.itsmanu.battistaAiSpigot.dto.enums.DebugCategory;
+import org.itsmanu.battistaAiSpigot.dto.enums.TimeWindow;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Rate limit state shared by the servers of a network, on Redis or any compatible server.
+ * <p>
+ * The limits work like the limits of a single server (see {@link GcraLimiter}):
+ * Redis keeps the theoretical arrival time of the minute, hour and day windows, in one hash for the global limits
+ * and one for each player. A server never asks Redis for a single request: it reserves a batch of requests
+ * (a lease) with a script that checks the three windows at once, then hands them out locally for a few seconds.
+ * Requests left in a lease are given back, so the limits only count the requests actually made.
+ * <p>
+ * When a window is full, the script tells when it accepts requests again, and the owner is rejected until then
+ * without contacting Redis. Redis is only contacted by a background thread, checks never wait for it: a check
+ * that finds no request at hand is accepted by the limits of this server, and the request is owed to Redis until a
+ * reservation counts it. When Redis can't be reached, it's left alone for a while and the limits of this server
+ * are used meanwhile.
+ */
+public class RedisLimiterStore implements LimiterStore {
+
+    // reserves up to ARGV[2] requests at ARGV[1], as many as all three windows allow,
+    // returns them with the time the windows accept one more request
+    private static final String RESERVE_SCRIPT = """
+            local now = tonumber(ARGV[1])
+            local granted = tonumber(ARGV[2])
+            local arrivals = redis.call('HMGET', KEYS[1], 'minute', 'hour', 'day')
+            for i = 1, 3 do
+              local interval = tonumber(ARGV[i + 2])
+              local arrival = math.max(tonumber(arrivals[i]) or 0, now)
+              local left = math.floor((now + interval * tonumber(ARGV[i + 5]) - arrival) / interval)
+              if left < granted then granted = left end
+            end
+            if granted < 0 then granted = 0 end
+            local retryAt = now
+            local expiresAt = now
+            for i = 1, 3 do
+              local interval = tonumber(ARGV[i + 2])
+              arrivals[i] = math.max(tonumber(arrivals[i]) or 0, now) + granted * interval
+              retryAt = math.max(retryAt, arrivals[i] + interval - interval * tonumber(ARGV[i + 5]))
+              expiresAt = math.max(expiresAt, arrivals[i])
+            end
+            if granted > 0 then
+              redis.call('HMSET', KEYS[1], 'minute', arrivals[1], 'hour', arrivals[2], 'day', arrivals[3])
+              redis.call('PEXPIRE', KEYS[1], expiresAt - now + tonumber(ARGV[9]))
+            end
+            return {granted, retryAt}
+            """;
+    // gives back ARGV[1] unused requests, reserved with the emission intervals ARGV[2..4]
+    private static final String RELEASE_SCRIPT = """
+            if redis.call('EXISTS', KEYS[1]) == 1 then
+              local fields = {'minute', 'hour', 'day'}
+              for i = 1, 3 do
+                redis.call('HINCRBY', KEYS[1], fields[i], -tonumber(ARGV[1]) * tonumber(ARGV[i + 1]))
+              end
+            end
+            return 0
+            """;
+    // time a server may hand out the requests of a lease
+    private static final long LEASE_MILLIS = 10_000;
+    // state outlives its windows a little, so late releases still find it
+    private static final long KEY_TTL_MARGIN = 60_000;
+    private static final long WARNING_INTERVAL = 60_000;
+    // time Redis is left alone after a failure
+    private static final long RETRY_COOLDOWN = 10_000;
+
+    private static final Logger logger = BattistaAiSpigot.getInstance().getLogger();
+
+    private final RespClient client;
+    private final LocalLimiterStore fallback;
+    private final String keyPrefix;
+    private final int globalBatch;
+    private final int playerBatch;
+
+    private final Account globalAccount = new Account("global");
+    private final ConcurrentHashMap<UUID, Account> playerAccounts = new ConcurrentHashMap<>();
+    // the only thread talking to Redis: reservations and releases
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+        Thread thread = new Thread(runnable, "Battista-Limiter-Store");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong reservations = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private volatile long unavailableUntil = 0;
+    private volatile long lastWarningAt = 0;
+
+    /**
+     * Requests reserved on Redis, handed out by this server until the lease expires.
+     */
+    private static final class Lease {
+        private final AtomicInteger remaining;
+        private final long expiresAt;
+        // Redis granted less than asked, a window is full until then
+        private final long exhaustedUntil;
+        // the hash the requests were reserved on, and the emission intervals they were reserved with
+        private final String key;
+        private final long[] intervals;
+
+        private Lease(int remaining, long expiresAt, long exhaustedUntil, String key, long[] intervals) {
+            this.remaining = new AtomicInteger(remaining);
+            this.expiresAt = expiresAt;
+            this.exhaustedUntil = exhaustedUntil;
+            this.key = key;
+            this.intervals = intervals;
+        }
+
+        private boolean tryTake(long now) {
+            if (now >= expiresAt) {
+                return false;
+            }
+            while (true) {
+                int left = remaining.get();
+                if (left <= 0) {
+                    return false;
+                }
+                if (remaining.compareAndSet(left, left - 1)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * The lease of an owner of limits, the network or a player, and its pending renewal.
+     */
+    private static final class Account {
+        private final String owner;
+        private volatile Lease lease;
+        private final AtomicBoolean renewing = new AtomicBoolean(false);
+        // requests accepted by the limits of this server, counted on Redis by the next reservations
+        private final AtomicInteger owed = new AtomicInteger();
+
+        private Account(String owner) {
+            this.owner = owner;
+        }
+    }
+
+    /**
+     * Requests granted by a reservation, and the time the windows accept one more request.
+     */
+    private record Reservation(int granted, long retryAt) {
+    }
+
+    /**
+     * @param shared   The shared limits settings.
+     * @param fallback The limits of this server, used when Redis can't be reached.
+     */
+    public RedisLimiterStore(Settings.SharedLimits shared, LocalLimiterStore fallback) {
+        this.client = new RespClient(shared.host(), shared.port(), shared.password(), shared.timeoutMillis());
+        this.fallback = fallback;
+        this.keyPrefix = shared.keyPrefix();
+        this.globalBatch = shared.globalBatch();
+        this.playerBatch = shared.playerBatch();
+    }
+
+    @Override
+    public boolean tryAcquireGlobal(long now) {
+        return tryAcquire(globalAccount, BattistaAiSpigot.getSettings().limits().global(), globalBatch, now,
+                () -> fallback.tryAcquireGlobal(now));
+    }
+
+    @Override
+    public boolean tryAcquirePlayer(UUID playerId, long now) {
+        Account account = playerAccounts.computeIfAbsent(playerId, id -> new Account("player:" + id));
+        return tryAcquire(account, BattistaAiSpigot.getSettings().limits().player(), playerBatch, now,
+                () -> fallback.tryAcquirePlayer(playerId, now));
+    }
+
+    @Override
+    public void removeExpired(long now) {
+        Settings.Limits limits = BattistaAiSpigot.getSettings().limits();
+        playerAccounts.forEach((playerId, account) -> {
+            if (!isIdle(account, now)) {
+                return;
+            }
+            if (account.owed.get() > 0) {
+                // the player is gone, the requests they still owe are counted without waiting for another one
+                renew(account, limits.player(), 0);
+            } else if (playerAccounts.remove(playerId, account)) {
+                release(account.lease);
+            }
+        });
+        if (isIdle(globalAccount, now)) {
+            if (globalAccount.owed.get() > 0) {
+                renew(globalAccount, limits.global(), 0);
+            } else {
+                release(globalAccount.lease);
+                globalAccount.lease = null;
+            }
+        }
+        fallback.removeExpired(now);
+    }
+
+    /**
+     * Gives back the requests left in every lease, then disconnects from Redis. Both happen on the background
+     * thread, this method doesn't wait for them, see {@link #awaitClosed(long)}.
+     */
+    @Override
+    public void close() {
+        playerAccounts.values().forEach(account -> release(account.lease));
+        playerAccounts.clear();
+        release(globalAccount.lease);
+        globalAccount.lease = null;
+        try {
+            executor.execute(client::close);
+        } catch (RejectedExecutionException e) {
+            // already closed
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Waits for the store to give back its unused requests after {@link #close()}.
+     *
+     * @param timeoutMillis The maximum time to wait, in milliseconds
+     */
+    public void awaitClosed(long timeoutMillis) {
+        try {
+            if (!executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                logger.warning("Battista could not give back all the unused shared rate limit requests");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        client.close();
+    }
+
+    /**
+     * Takes a request from the lease of an owner, without ever waiting for Redis.
+     *
+     * @param account  The owner of the limits.
+     * @param limits   The limits of the owner.
+     * @param batch    The requests reserved at once.
+     * @param now      The current timestamp in milliseconds since epoch.
+     * @param fallback The check of the limits of this server, used when the lease has no request at hand.
+     * @return true if the request was accepted, false if a limit was reached.
+     */
+    private boolean tryAcquire(Account account, Settings.RateLimits limits, int batch, long now, BooleanSupplier fallback) {
+        Lease lease = account.lease;
+        if (lease != null && lease.tryTake(now)) {
+            // renewed in the background before it runs out, unless a window is full anyway
+            if (lease.remaining.get() <= batch / 2 && now >= lease.exhaustedUntil) {
+                renew(account, limits, batch);
+            }
+            return true;
+        }
+        if (lease != null && now < lease.exhaustedUntil) {
+            return false;
+        }
+        if (now < unavailableUntil) {
+            fallbacks.incrementAndGet();
+            return fallback.getAsBoolean();
+        }
+
+        // accepted provisionally, the request is counted on Redis by the renewal
+        boolean accepted = fallback.getAsBoolean();
+        if (accepted) {
+            account.owed.incrementAndGet();
+        }
+        renew(account, limits, batch);
+        return accepted;
+    }
+
+    /**
+     * Checks if an owner has no lease to hand requests out of, and no renewal pending.
+     */
+    private static boolean isIdle(Account account, long now) {
+        Lease lease = account.lease;
+        boolean expired = lease == null || (now >= lease.expiresAt && now >= lease.exhaustedUntil);
+        return expired && !account.renewing.get();
+    }
+
+    /**
+     * Reserves a new batch of requests for an owner on the background thread, unless a renewal is already pending
+     * or Redis is left alone after a failure. The requests owed by the owner are reserved on top of the batch,
+     * the ones Redis refuses stay owed and are counted by a later reservation.
+     */
+    private void renew(Account account, Settings.RateLimits limits, int batch) {
+        if (System.currentTimeMillis() < unavailableUntil || !account.renewing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                int owed = 0;
+                try {
+                    long now = System.currentTimeMillis();
+                    if (now < unavailableUntil) {
+                        return;
+                    }
+                    owed = account.owed.getAndSet(0);
+                    int requested = batch + owed;
+                    if (requested <= 0) {
+                        return;
+                    }
+                    String key = keyPrefix + ":" + account.owner;
+                    long[] intervals = intervals(limits);
+                    Reservation reservation = reserve(key, limits, intervals, requested, now);
+                    int granted = reservation.granted();
+                    // owed requests are counted first, the rest of the grant goes to the lease
+                    if (granted < owed) {
+                        account.owed.addAndGet(owed - granted);
+                    }
+                    int leased = Math.max(granted - owed, 0);
+                    owed = 0;
+                    Lease renewed = new Lease(leased, now + LEASE_MILLIS,
+                            granted < requested ? reservation.retryAt() : 0, key, intervals);
+                    Lease previous = account.lease;
+                    if (previous != null && now < previous.expiresAt && Arrays.equals(previous.intervals, intervals)) {
+                        // requests still left in the previous lease are moved to the new one
+                        renewed.remaining.addAndGet(Math.max(previous.remaining.getAndSet(0), 0));
+                    } else {
+                        release(previous);
+                    }
+                    account.lease = renewed;
+                } catch (IOException e) {
+                    // the reservation may not have counted them
+                    account.owed.addAndGet(owed);
+                    onFailure(e);
+                } finally {
+                    account.renewing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the store is closing
+            account.renewing.set(false);
+        }
+    }
+
+    /**
+     * Reserves up to a number of requests on the minute, hour and day windows of an owner, on the background thread.
+     *
+     * @return The reserved requests, less than asked if a window is full.
+     */
+    private Reservation reserve(String key, Settings.RateLimits limits, long[] intervals, int requests, long now)
+            throws IOException {
+        Object reply = client.call("EVAL", RESERVE_SCRIPT, "1", key,
+                String.valueOf(now),
+                String.valueOf(requests),
+                String.valueOf(intervals[0]),
+                String.valueOf(intervals[1]),
+                String.valueOf(intervals[2]),
+                String.valueOf(limits.requestsPerMinute()),
+                String.valueOf(limits.requestsPerHour()),
+                String.valueOf(limits.requestsPerDay()),
+                String.valueOf(KEY_TTL_MARGIN));
+        reservations.incrementAndGet();
+        if (!(reply instanceof List<?> values) || values.size() != 2
+                || !(values.get(0) instanceof Long granted) || !(values.get(1) instanceof Long retryAt)) {
+            throw new IOException("Unexpected reservation reply: " + reply);
+        }
+        DebugUtil.trace(DebugCategory.LIMITS, () -> "Reserved " + granted + " of " + requests + " shared requests on " + key);
+        return new Reservation(granted.intValue(), retryAt);
+    }
+
+    /**
+     * Gives back the requests left in a lease, in the background.
+     */
+    private void release(Lease lease) {
+        if (lease == null) {
+            return;
+        }
+        int left = lease.remaining.getAndSet(0);
+        if (left <= 0) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                if (System.currentTimeMillis() < unavailableUntil) {
+                    // the windows replenish on their own
+                    return;
+                }
+                try {
+                    client.call("EVAL", RELEASE_SCRIPT, "1", lease.key, String.valueOf(left),
+                            String.valueOf(lease.intervals[0]),
+                            String.valueOf(lease.intervals[1]),
+                            String.valueOf(lease.intervals[2]));
+                } catch (IOException e) {
+                    onFailure(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the store is closing, the windows replenish on their own
+        }
+    }
+
+    /**
+     * Counts a Redis failure, leaves Redis alone for a while, and logs it at most once a minute.
+     */
+    private void onFailure(IOException e) {
+        fallbacks.incrementAndGet();
+        long now = System.currentTimeMillis();
+        unavailableUntil = now + RETRY_COOLDOWN;
+        if (now - lastWarningAt >= WARNING_INTERVAL) {
+            lastWarningAt = now;
+            logger.warning("Battista shared rate limits unavailable, using the limits of this server: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Computes the emission intervals of the minute, hour and day windows, in the order the scripts expect them.
+     */
+    private static long[] intervals(Settings.RateLimits limits) {
+        return new long[]{
+                GcraLimiter.emissionInterval(TimeWindow.MINUTE.getMillis(), limits.requestsPerMinute()),
+                GcraLimiter.emissionInterval(TimeWindow.HOUR.getMillis(), limits.requestsPerHour()),
+                GcraLimiter.emissionInterval(TimeWindow.DAY.getMillis(), limits.requestsPerDay())
+        };
+    }
+
+    public long getReservations() {
+        return reservations.get();
+    }
+
+    public long getFallbacks() {
+        return fallbacks.get();
+    }
+}
@@ -0,0 +1,224 @@
+package org.itsmanu.battistaAiSpigot.utils;
+
+import org.itsmanu.battistaAiSpigot.BattistaAiSpigot;
+import org.itsmanu.battistaAiSpigot.dto.Settings;
+import org.itsmanu.battistaAiSpigot.dto.enums.DebugCategory;
+import org.itsmanu.battistaAiSpigot.dto.enums.MetricHistogram;
+import org.itsmanu.battistaAiSpigot.dto.enums.RequestPriority;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+public class RequestQueueUtil {
+
+    private static final Object lock = new Object();
+    // waiting requests by priority, guarded by the lock
+    private static final Map<RequestPriority, ArrayDeque<QueuedRequest>> lanes = new EnumMap<>(RequestPriority.class);
+    private static int runningRequests = 0;
+    private static int queuedRequests = 0;
+
+    private static final AtomicLong shedRequests = new AtomicLong();
+    private static final AtomicLong rejectedRequests = new AtomicLong();
+
+    static {
+        for (RequestPriority priority : RequestPriority.values()) {
+            lanes.put(priority, new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * A request waiting for a free slot.
+     *
+     * @param request The request to start.
+     * @param future  The future completed with the response of the request.
+     * @param queuedAt The time the request was submitted, in nanoseconds.
+     */
+    private record QueuedRequest(Supplier<CompletableFuture<String>> request, CompletableFuture<String> future, long queuedAt) {
+    }
+
+    private RequestQueueUtil() {
+    }
+
+    /**
+     * Admits a request to the backend. The request starts right away if fewer than the configured maximum
+     * requests are running and no request is waiting, otherwise it waits in the lane of its priority.
+     * When the queue is full, a queued request with a lower priority is shed to make room, or the new request
+     * is rejected if there is none. Shed and rejected requests are completed with the queue full message.
+     *
+     * @param priority              The priority of the request.
+     * @param request               The request to start, returning its response.
+     * @param queuePositionConsumer The consumer of the position in the queue, called only if the request has to wait.
+     * @return A CompletableFuture containing the response of the request.
+     */
+    public static CompletableFuture<String> submit(RequestPriority priority, Supplier<CompletableFuture<String>> request,
+                                                   IntConsumer queuePositionConsumer) {
+        Settings settings = BattistaAiSpigot.getSettings();
+        var queueSettings = settings.queue();
+        CompletableFuture<String> future = new CompletableFuture<>();
+        QueuedRequest queued = new QueuedRequest(request, future, System.nanoTime());
+
+        QueuedRequest shed = null;
+        List<QueuedRequest> ready = List.of();
+        int position;
+        synchronized (lock) {
+            // requests already waiting go first, even when a slot is free
+            if (queuedRequests == 0 && runningRequests < queueSettings.maxConcurrentRequests()) {
+                runningRequests++;
+                position = 0;
+            } else {
+                if (queuedRequests >= queueSettings.maxQueuedRequests()) {
+                    shed = shedLowerPriority(priority);
+                    if (shed == null) {
+                        rejectedRequests.incrementAndGet();
+                        DebugUtil.trace(DebugCategory.HTTP, () -> "Battista request queue full, rejected a " + priority + " request");
+                        future.complete(settings.getMessage("messages.queue_full", "Too many questions, try again later."));
+                        return future;
+                    }
+                }
+                lanes.get(priority).addLast(queued);
+                queuedRequests++;
+                // slots may be free if a reload raised the limit, the new request may be among the ones they go to
+                ready = pollReady(queueSettings.maxConcurrentRequests());
+                position = ready.contains(queued) ? -1 : getPosition(priority);
+            }
+        }
+
+        if (shed != null) {
+            shedRequests.incrementAndGet();
+            DebugUtil.trace(DebugCategory.HTTP, () -> "Battista request queue full, shed a request for a " + priority + " one");
+            shed.future().complete(settings.getMessage("messages.queue_full", "Too many questions, try again later."));
+        }
+
+        if (position == 0) {
+            start(queued);
+        } else if (position > 0 && queuePositionConsumer != null) {
+            DebugUtil.trace(DebugCategory.HTTP, () -> "Battista " + priority + " request queued at position " + position);
+            queuePositionConsumer.accept(position);
+        }
+        ready.forEach(RequestQueueUtil::start);
+        return future;
+    }
+
+    /**
+     * Starts a request, and starts the next queued one when it completes.
+     *
+     * @param queued The request to start.
+     */
+    private static void start(QueuedRequest queued) {
+        MetricsUtil.record(MetricHistogram.QUEUE_WAIT, (System.nanoTime() - queued.queuedAt()) / 1_000_000);
+        CompletableFuture<String> response;
+        try {
+            response = queued.request().get();
+        } catch (Exception e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+
+        response.whenComplete((answer, throwable) -> {
+            release();
+            if (throwable != null) {
+                queued.future().completeExceptionally(throwable);
+            } else {
+                queued.future().complete(answer);
+            }
+        });
+    }
+
+    /**
+     * Frees the slot of a completed request, handing it to the first queued request with the highest priority.
+     * When a reload raised the limit, the extra slots are handed over as well.
+     */
+    private static void release() {
+        List<QueuedRequest> ready;
+        synchronized (lock) {
+            runningRequests--;
+            // the limit may have been lowered by a reload, then no slot is handed over until enough requests complete
+            ready = pollReady(BattistaAiSpigot.getSettings().queue().maxConcurrentRequests());
+        }
+
+        ready.forEach(RequestQueueUtil::start);
+    }
+
+    /**
+     * Takes the queued requests that fit in the free slots, highest priority first, and counts them as running.
+     * Must be called while holding the lock.
+     *
+     * @param maxConcurrentRequests The maximum number of requests running at the same time.
+     * @return The requests to start, in order.
+     */
+    private static List<QueuedRequest> pollReady(int maxConcurrentRequests) {
+        List<QueuedRequest> ready = List.of();
+        for (RequestPriority priority : RequestPriority.values()) {
+            ArrayDeque<QueuedRequest> lane = lanes.get(priority);
+            while (runningRequests < maxConcurrentRequests && !lane.isEmpty()) {
+                if (ready.isEmpty()) {
+                    ready = new ArrayList<>();
+                }
+                ready.add(lane.pollFirst());
+                queuedRequests--;
+                runningRequests++;
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * Removes the most recently queued request with a priority lower than the given one.
+     * Must be called while holding the lock.
+     *
+     * @param priority The priority of the request that needs room.
+     * @return The removed request, or null if there is no request with a lower priority.
+     */
+    private static QueuedRequest shedLowerPriority(RequestPriority priority) {
+        RequestPriority[] priorities = RequestPriority.values();
+        for (int i = priorities.length - 1; i > priority.ordinal(); i--) {
+            QueuedRequest shed = lanes.get(priorities[i]).pollLast();
+            if (shed != null) {
+                queuedRequests--;
+                return shed;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Computes the position in the queue of the last request of a lane.
+     * Must be called while holding the lock.
+     *
+     * @param priority The priority of the lane.
+     * @return The number of queued requests that will start before it, plus one.
+     */
+    private static int getPosition(RequestPriority priority) {
+        int position = 0;
+        for (int i = 0; i <= priority.ordinal(); i++) {
+            position += lanes.get(RequestPriority.values()[i]).size();
+        }
+        return position;
+    }
+
+    public static int getRunningRequests() {
+        synchronized (lock) {
+            return runningRequests;
+        }
+    }
+
+    public static int getQueuedRequests() {
+        synchronized (lock) {
+            return queuedRequests;
+        }
+    }
+
+    public static long getShedRequests() {
+        return shedRequests.get();
+    }
+
+    public static long getRejectedRequests() {
+        return rejectedRequests.get();
+    }
+}
@@ -0,0 +1,160 @@
+package org.itsmanu.battistaAiSpigot.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal client of the Redis serialization protocol (RESP2), enough to run commands and scripts on Redis
+ * or any compatible server. A single connection is shared, commands are sent one at a time, and the
+ * connection is opened again on the next command after a failure.
+ */
+public class RespClient implements Closeable {
+
+    private final String host;
+    private final int port;
+    private final String password;
+    private final int timeoutMillis;
+
+    private Socket socket;
+    private InputStream input;
+    private OutputStream output;
+
+    /**
+     * @param host          The server host.
+     * @param port          The server port.
+     * @param password      The password, empty or null if the server doesn't require authentication.
+     * @param timeoutMillis The time to wait to connect and for each reply.
+     */
+    public RespClient(String host, int port, String password, int timeoutMillis) {
+        this.host = host;
+        this.port = port;
+        this.password = password;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Runs a command and waits for its reply.
+     *
+     * @param args The command and its arguments.
+     * @return The reply: a Long for integers, a String for simple and bulk strings (null for nil),
+     * a List for arrays.
+     * @throws IOException if the server can't be reached, or replies with an error.
+     */
+    public synchronized Object call(String... args) throws IOException {
+        try {
+            if (socket == null) {
+                connect();
+            }
+            return send(args);
+        } catch (IOException e) {
+            disconnect();
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        disconnect();
+    }
+
+    private void connect() throws IOException {
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(timeoutMillis);
+        socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+        input = new BufferedInputStream(socket.getInputStream());
+        output = new BufferedOutputStream(socket.getOutputStream());
+        if (password != null && !password.isEmpty()) {
+            send("AUTH", password);
+        }
+    }
+
+    private void disconnect() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // the connection is dropped anyway
+            }
+        }
+        socket = null;
+        input = null;
+        output = null;
+    }
+
+    private Object send(String... args) throws IOException {
+        output.write(('*' + String.valueOf(args.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        for (String arg : args) {
+            byte[] bytes = arg.getBytes(StandardCharsets.UTF_8);
+            output.write(('$' + String.valueOf(bytes.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            output.write(bytes);
+            output.write('\r');
+            output.write('\n');
+        }
+        output.flush();
+        return readReply();
+    }
+
+    private Object readReply() throws IOException {
+        int type = input.read();
+        String line = readLine();
+        return switch (type) {
+            case '+' -> line;
+            case '-' -> throw new IOException("Redis error: " + line);
+            case ':' -> Long.parseLong(line);
+            case '$' -> readBulkString(Integer.parseInt(line));
+            case '*' -> {
+                int length = Integer.parseInt(line);
+                if (length < 0) {
+                    yield null;
+                }
+                List<Object> elements = new ArrayList<>(length);
+                for (int i = 0; i < length; i++) {
+                    elements.add(readReply());
+                }
+                yield elements;
+            }
+            case -1 -> throw new EOFException("Redis closed the connection");
+            default -> throw new IOException("Unknown Redis reply type: " + (char) type);
+        };
+    }
+
+    private String readBulkString(int length) throws IOException {
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = input.readNBytes(length);
+        if (bytes.length < length) {
+            throw new EOFException("Redis closed the connection");
+        }
+        // trailing CRLF
+        readLine();
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        // reply lines never contain a carriage return, it always starts the CRLF terminator
+        while ((c = input.read()) != '\r') {
+            if (c == -1) {
+                throw new EOFException("Redis closed the connection");
+            }
+            line.append((char) c);
+        }
+        if (input.read() != '\n') {
+            throw new IOException("Malformed Redis reply");
+        }
+        return line.toString();
+    }
+}
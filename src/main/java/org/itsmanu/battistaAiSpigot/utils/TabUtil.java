@@ -11,6 +11,7 @@ import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.event.HandlerList;
 import org.itsmanu.battistaAiSpigot.BattistaAiSpigot;
+import org.itsmanu.battistaAiSpigot.dto.enums.DebugCategory;
 import org.itsmanu.battistaAiSpigot.listeners.PlayerTabListener;
 import com.comphenix.protocol.wrappers.WrappedSignedProperty;
 
@@ -91,7 +92,7 @@ public class TabUtil {
                 EnumWrappers.PlayerInfoAction.UPDATE_LISTED
         ));
 
-        String displayName = BattistaAiSpigot.getConfigs().getString("tab.name", "Battista AI");
+        String displayName = BattistaAiSpigot.getSettings().tab().name();
         // colorize name
         displayName = displayName.replace("&", "§");
 
@@ -109,6 +110,7 @@ public class TabUtil {
 
         // Send packet
         protocolManager.sendServerPacket(viewer, packet);
+        DebugUtil.trace(DebugCategory.TAB, () -> "AI helper added to the tab of " + viewer.getName());
     }
 
     /**
@@ -180,7 +182,7 @@ public class TabUtil {
         // async task to fetch skin data
         Bukkit.getScheduler().runTaskAsynchronously(BattistaAiSpigot.getInstance(), () -> {
             try {
-                String skinOwner = BattistaAiSpigot.getConfigs().getString("tab.skin", "ItsManuX");
+                String skinOwner = BattistaAiSpigot.getSettings().tab().skin();
                 PlayerProfile profile = Bukkit.createProfile(skinOwner);
 
                 // Complete the profile to fetch skin data